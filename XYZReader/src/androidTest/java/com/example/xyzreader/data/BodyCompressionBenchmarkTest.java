@@ -0,0 +1,113 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stores the same synthetic articles with body compression on and off, and logs under
+ * {@value #TAG} the size of the database and the latency of reading bodies through a freshly
+ * opened database, whose page cache is empty. Bodies stay in the table either way. Synthetic
+ * bodies are made of a limited, partly made-up vocabulary, so their ratio is only indicative.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BodyCompressionBenchmarkTest {
+    private static final String TAG = "BodyCompressionBenchmark";
+    private static final int ARTICLES = 2000;
+    private static final int BODY_LENGTH = 10 * 1024;
+    private static final int CHUNK_SIZE = 200;
+    private static final int READS = 200;
+
+    private ProviderTestContext mContext;
+
+    @After
+    public void tearDown() {
+        if (mContext != null) {
+            mContext.delete();
+        }
+    }
+
+    @Test
+    public void compressionShrinksDatabase() {
+        final Result plain = measure(false);
+        final Result compressed = measure(true);
+
+        Log.i(TAG, "Compression saves " + (plain.size - compressed.size) * 100 / plain.size
+                + "% of the database, cold body reads take " + compressed.medianReadMicros
+                + "us instead of " + plain.medianReadMicros + "us");
+        assertTrue(compressed.size < plain.size);
+    }
+
+    private Result measure(boolean compress) {
+        final String name = compress ? "compressed" : "plain";
+        if (mContext != null) {
+            mContext.delete();
+        }
+        mContext = new ProviderTestContext(InstrumentationRegistry.getTargetContext(),
+                TAG + "-" + name)
+                .setBoolean(R.bool.compress_article_bodies, compress)
+                .setBoolean(R.bool.store_article_bodies_in_files, false);
+
+        ItemsProvider provider = mContext.createProvider();
+        final SyntheticArticles articles = new SyntheticArticles(0);
+        for (int start = 0; start < ARTICLES; start += CHUNK_SIZE) {
+            final ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = articles.create(start + i, BODY_LENGTH);
+            }
+            provider.bulkInsert(ItemsContract.Items.buildDirUri(), chunk);
+        }
+        provider.call(ItemsContract.METHOD_CHECKPOINT, null, null);
+        provider.shutdown();
+
+        final Result result = new Result();
+        result.size = mContext.getDatabaseSize();
+
+        // A new provider opens the database again, with nothing cached
+        provider = mContext.createProvider();
+        final Random random = new Random(0);
+        final long[] latencies = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            final long id = 1 + random.nextInt(ARTICLES);
+            final long start = SystemClock.elapsedRealtimeNanos();
+            final Cursor cursor = provider.query(ItemsContract.Items.buildItemUri(id),
+                    new String[] { ItemsContract.Items.BODY }, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertTrue(cursor.getString(0).length() >= BODY_LENGTH);
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        }
+        provider.shutdown();
+
+        final long first = latencies[0];
+        Arrays.sort(latencies);
+        result.medianReadMicros = latencies[READS / 2];
+        Log.i(TAG, name + ": " + ARTICLES + " articles in " + result.size / 1024 + "KB; "
+                + READS + " cold body reads, first " + first + "us, median "
+                + result.medianReadMicros + "us, p95 " + latencies[(READS - 1) * 95 / 100]
+                + "us");
+        return result;
+    }
+
+    private static class Result {
+        long size;
+        long medianReadMicros;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Inserts 1k, 10k and 100k synthetic rows through {@link ItemsProvider#bulkInsert} and logs the
+ * rows per second under {@value #TAG}. Each call must reach observers as a single change set.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInsertBenchmarkTest {
+    private static final String TAG = "BulkInsertBenchmark";
+    private static final int BODY_LENGTH = 1000;
+
+    private ProviderTestContext mContext;
+    private ItemsProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new ProviderTestContext(InstrumentationRegistry.getTargetContext(), TAG);
+        mProvider = mContext.createProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void callNotifiesOnce() {
+        mProvider.bulkInsert(ItemsContract.Items.buildDirUri(), createRows(3));
+
+        final List<Uri> notifications = mContext.takeNotifications();
+        assertEquals(1, notifications.size());
+        assertArrayEquals(queryIds(), ItemsContract.Items.getChangedIds(notifications.get(0)));
+    }
+
+    @Test
+    public void insert1k() {
+        measure(1000);
+    }
+
+    @Test
+    public void insert10k() {
+        measure(10000);
+    }
+
+    @Test
+    public void insert100k() {
+        measure(100000);
+    }
+
+    private void measure(int count) {
+        final ContentValues[] rows = createRows(count);
+        final long start = SystemClock.elapsedRealtime();
+        mProvider.bulkInsert(ItemsContract.Items.buildDirUri(), rows);
+        final long elapsed = Math.max(SystemClock.elapsedRealtime() - start, 1);
+
+        Log.i(TAG, count + " rows in " + elapsed + "ms: " + (count * 1000L / elapsed)
+                + " rows/s");
+        assertEquals(count, queryIds().length);
+        assertEquals(1, mContext.takeNotifications().size());
+    }
+
+    /** Rows sharing one body, so 100k of them fit in the test's heap. */
+    private static ContentValues[] createRows(int count) {
+        final SyntheticArticles articles = new SyntheticArticles(count);
+        final String body = articles.body(BODY_LENGTH);
+        final ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = articles.create(i, body);
+        }
+        return rows;
+    }
+
+    private long[] queryIds() {
+        final Cursor cursor = mProvider.query(ItemsContract.Items.buildDirUri(),
+                new String[] { ItemsContract.Items._ID }, null, null,
+                ItemsContract.Items._ID + " ASC");
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads every article of a large synthetic dataset through the list, id-only and detail
+ * projections, and through the all-articles projection that used to carry the body, and logs
+ * under {@value #TAG} how much data each copies into CursorWindows and how many windows it
+ * fills. Bodies are kept plain and in the table, where that projection used to find them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CursorWindowBenchmarkTest {
+    private static final String TAG = "CursorWindowBenchmark";
+    private static final int ARTICLES = 2000;
+    private static final int BODY_LENGTH = 20 * 1024;
+    private static final int CHUNK_SIZE = 200;
+
+    /** What every list and pager cursor used to read: the detail columns and the body. */
+    private static final String[] ALL_WITH_BODY_PROJECTION = {
+            ItemsContract.Items._ID,
+            ItemsContract.Items.TITLE,
+            ItemsContract.Items.PUBLISHED_TIME,
+            ItemsContract.Items.AUTHOR,
+            ItemsContract.Items.THUMB_URL,
+            ItemsContract.Items.PHOTO_URL,
+            ItemsContract.Items.ASPECT_RATIO,
+            ItemsContract.Items.BODY,
+    };
+
+    private ProviderTestContext mContext;
+    private ItemsProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new ProviderTestContext(InstrumentationRegistry.getTargetContext(), TAG)
+                .setBoolean(R.bool.compress_article_bodies, false)
+                .setBoolean(R.bool.store_article_bodies_in_files, false);
+        mProvider = mContext.createProvider();
+        final SyntheticArticles articles = new SyntheticArticles(0);
+        final String body = articles.body(BODY_LENGTH);
+        for (int start = 0; start < ARTICLES; start += CHUNK_SIZE) {
+            final ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = articles.create(start + i, body);
+            }
+            mProvider.bulkInsert(ItemsContract.Items.buildDirUri(), chunk);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void listProjectionsLeaveBodiesOut() throws Exception {
+        final WindowUsage allWithBody = read("all articles with body", ALL_WITH_BODY_PROJECTION);
+        final WindowUsage list = read("list", ArticleLoader.ListQuery.PROJECTION);
+        final WindowUsage ids = read("pager ids", ArticleLoader.IdQuery.PROJECTION);
+        read("detail columns", ArticleLoader.Query.PROJECTION);
+
+        Log.i(TAG, "List cursors copy " + (allWithBody.bytes / Math.max(list.bytes, 1))
+                + "x less than before, pager cursors "
+                + (allWithBody.bytes / Math.max(ids.bytes, 1)) + "x less");
+        assertEquals(1, list.windows);
+        assertEquals(1, ids.windows);
+        assertTrue(list.bytes * 20 < allWithBody.bytes);
+    }
+
+    private WindowUsage read(String name, String[] projection)
+            throws UnsupportedEncodingException {
+        final long start = SystemClock.elapsedRealtime();
+        final Cursor cursor = mProvider.query(ItemsContract.Items.buildDirUri(), projection,
+                null, null, ItemsContract.Items.DEFAULT_SORT);
+        final WindowUsage usage = new WindowUsage();
+        try {
+            final Cursor raw = unwrap(cursor);
+            int windowStart = -1;
+            while (raw.moveToNext()) {
+                final CursorWindow window = ((AbstractWindowedCursor) raw).getWindow();
+                if (window.getStartPosition() != windowStart) {
+                    windowStart = window.getStartPosition();
+                    usage.windows++;
+                }
+                for (int column = 0; column < projection.length; column++) {
+                    usage.bytes += sizeOf(raw, column);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.i(TAG, name + ": " + ARTICLES + " rows, " + usage.bytes / 1024 + "KB in "
+                + usage.windows + " window fills, " + (SystemClock.elapsedRealtime() - start)
+                + "ms");
+        return usage;
+    }
+
+    /** The cursor SQLite filled, below any wrapper the provider added. */
+    private static Cursor unwrap(Cursor cursor) {
+        while (cursor instanceof CursorWrapper) {
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        return cursor;
+    }
+
+    /** Bytes a field takes up in a window: strings are held as UTF-8, numbers in 8 bytes. */
+    private static long sizeOf(Cursor cursor, int column) throws UnsupportedEncodingException {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column).getBytes("UTF-8").length + 1;
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column).length;
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            default:
+                return 8;
+        }
+    }
+
+    private static class WindowUsage {
+        long bytes;
+        int windows;
+    }
+}
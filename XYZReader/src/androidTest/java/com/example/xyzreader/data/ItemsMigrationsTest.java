@@ -0,0 +1,348 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades databases created with the version 2 schema, holding real rows, one step at a time and
+ * all the way, and checks that no row is lost or altered on the way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemsMigrationsTest {
+    private static final String DATE = "2014-04-16T00:00:00.000Z";
+    private static final long TIME = 1397606400000L;
+
+    private File mFilesDir;
+    private Context mContext;
+    private BodyFileStore mBodyFiles;
+    private ItemsMigrations mMigrations;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        final Context target = InstrumentationRegistry.getTargetContext();
+        // Keep body files away from the app's own
+        mFilesDir = new File(target.getCacheDir(), "ItemsMigrationsTest");
+        mContext = new ContextWrapper(target) {
+            @Override
+            public File getFilesDir() {
+                return mFilesDir;
+            }
+        };
+        mBodyFiles = new BodyFileStore(mContext);
+        mMigrations = new ItemsMigrations(mContext);
+        mDb = SQLiteDatabase.create(null);
+        createVersion2(mDb);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        deleteRecursively(mFilesDir);
+    }
+
+    @Test
+    public void versionsBeforeMinimumAreNotMigrated() {
+        assertFalse(mMigrations.migrate(mDb, ItemsMigrations.MIN_VERSION - 1, 7));
+    }
+
+    @Test
+    public void step3AddsContentHashAndKeepsRows() {
+        final long id = insertVersion2(mDb, "s1", "Title", "Author", "Body", DATE);
+        migrate(2, 3);
+
+        final Cursor cursor = mDb.rawQuery("SELECT title, author, body, content_hash FROM items"
+                + " WHERE _id=?", new String[] { Long.toString(id) });
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Title", cursor.getString(0));
+            assertEquals("Author", cursor.getString(1));
+            assertEquals("Body", cursor.getString(2));
+            assertTrue(cursor.isNull(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void step4BackfillsPublishedTimeAcrossBatches() {
+        // More than two backfill batches, so the keyset continuation is exercised
+        final int count = 450;
+        for (int i = 0; i < count; i++) {
+            insertVersion2(mDb, "s" + i, "Title " + i, "Author", "Body", DATE);
+        }
+        final long malformed = insertVersion2(mDb, "bad", "Title", "Author", "Body", "yesterday");
+        migrate(2, 4);
+
+        assertEquals(count, DatabaseUtils.longForQuery(mDb,
+                "SELECT COUNT(*) FROM items WHERE published_time=?",
+                new String[] { Long.toString(TIME) }));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb,
+                "SELECT published_time FROM items WHERE _id=?",
+                new String[] { Long.toString(malformed) }));
+    }
+
+    @Test
+    public void step5KeepsFirstCopyOfDuplicateServerIds() {
+        final long first = insertVersion2(mDb, "s1", "First", "Author", "Body", DATE);
+        final long copy = insertVersion2(mDb, "s1", "Copy", "Author", "Body", DATE);
+        final long other = insertVersion2(mDb, "s2", "Other", "Author", "Body", DATE);
+        final long local = insertVersion2(mDb, null, "Local", "Author", "Body", DATE);
+        final long localToo = insertVersion2(mDb, null, "Local too", "Author", "Body", DATE);
+        mBodyFiles.write(first, "First body");
+        mBodyFiles.write(copy, "Copy body");
+        migrate(2, 5);
+
+        assertEquals(listOf(first, other, local, localToo), queryIds(mDb));
+        assertTrue(mBodyFiles.getFile(first).exists());
+        assertFalse(mBodyFiles.getFile(copy).exists());
+        assertEquals(1, DatabaseUtils.longForQuery(mDb,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name=?",
+                new String[] { "items_server_id" }));
+    }
+
+    @Test
+    public void step6IndexesInlineAndOutOfLineBodies() {
+        final long inline = insertVersion2(mDb, "s1", "Inline", "Author", "tangerine", DATE);
+        final long external = insertVersion2(mDb, "s2", "External", "Author", "", DATE);
+        migrate(2, 5);
+        final ContentValues values = new ContentValues();
+        values.put(ItemsContract.Items.BODY, BodyCodec.EXTERNAL);
+        mDb.update("items", values, "_id=?", new String[] { Long.toString(external) });
+        mBodyFiles.write(external, "pomegranate");
+        migrate(5, 6);
+
+        assertEquals(2, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM items_fts", null));
+        assertEquals(inline, DatabaseUtils.longForQuery(mDb,
+                "SELECT docid FROM items_fts WHERE items_fts MATCH ?",
+                new String[] { "tangerine" }));
+        assertEquals(external, DatabaseUtils.longForQuery(mDb,
+                "SELECT docid FROM items_fts WHERE items_fts MATCH ?",
+                new String[] { "pomegranate" }));
+    }
+
+    @Test
+    public void step7MovesAuthorsAndKeepsRows() {
+        final long a = insertVersion2(mDb, "s1", "One", "Ann", "Body one", DATE);
+        final long b = insertVersion2(mDb, "s2", "Two", "Bob", "Body two", DATE);
+        final long c = insertVersion2(mDb, "s3", "Three", "Ann", "Body three", DATE);
+        migrate(2, 7);
+
+        assertEquals(listOf(a, b, c), queryIds(mDb));
+        assertEquals(2, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM authors", null));
+        final Cursor cursor = mDb.rawQuery("SELECT items._id, title, body, published_time,"
+                + " authors.name FROM items JOIN authors ON authors._id=items.author_id"
+                + " ORDER BY items._id", null);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToNext();
+            assertRow(cursor, a, "One", "Body one", "Ann");
+            cursor.moveToNext();
+            assertRow(cursor, b, "Two", "Body two", "Bob");
+            cursor.moveToNext();
+            assertRow(cursor, c, "Three", "Body three", "Ann");
+        } finally {
+            cursor.close();
+        }
+        assertFalse(tableExists(mDb, "items_v7"));
+    }
+
+    @Test
+    public void step7KeepsDeletedIdsRetired() {
+        insertVersion2(mDb, "s1", "One", "Ann", "Body", DATE);
+        insertVersion2(mDb, "s2", "Two", "Ann", "Body", DATE);
+        final long deleted = insertVersion2(mDb, "s3", "Three", "Ann", "Body", DATE);
+        mDb.delete("items", "_id=?", new String[] { Long.toString(deleted) });
+        migrate(2, 7);
+
+        assertEquals(1, DatabaseUtils.longForQuery(mDb,
+                "SELECT COUNT(*) FROM sqlite_sequence WHERE name='items'", null));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb,
+                "SELECT COUNT(*) FROM sqlite_sequence WHERE name='items_v7'", null));
+        final ContentValues values = new ContentValues();
+        values.put("title", "Four");
+        values.put("author_id", 1);
+        values.put("body", "Body");
+        values.put("thumb_url", "");
+        values.put("photo_url", "");
+        values.put("published_date", DATE);
+        assertEquals(deleted + 1, mDb.insertOrThrow("items", null, values));
+    }
+
+    @Test
+    public void migratedSchemaMatchesFreshSchema() {
+        insertVersion2(mDb, "s1", "One", "Ann", "Body", DATE);
+        migrate(2, 7);
+
+        final SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        try {
+            new ItemsDatabase(mContext).onCreate(fresh);
+            for (String table : new String[] { "items", "authors", "items_fts" }) {
+                assertEquals(table, describeTable(fresh, table), describeTable(mDb, table));
+                assertEquals(table, describeIndexes(fresh, table), describeIndexes(mDb, table));
+            }
+        } finally {
+            fresh.close();
+        }
+    }
+
+    private void migrate(int oldVersion, int newVersion) {
+        mDb.beginTransaction();
+        try {
+            assertTrue(mMigrations.migrate(mDb, oldVersion, newVersion));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * The schema the app shipped before migrations existed, spelled out like the steps do.
+     */
+    private static void createVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE items ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "server_id TEXT,"
+                + "title TEXT NOT NULL,"
+                + "author TEXT NOT NULL,"
+                + "body TEXT NOT NULL,"
+                + "thumb_url TEXT NOT NULL,"
+                + "photo_url TEXT NOT NULL,"
+                + "aspect_ratio REAL NOT NULL DEFAULT 1.5,"
+                + "published_date TEXT NOT NULL)");
+    }
+
+    private static long insertVersion2(SQLiteDatabase db, String serverId, String title,
+                                       String author, String body, String publishedDate) {
+        final ContentValues values = new ContentValues();
+        values.put("server_id", serverId);
+        values.put("title", title);
+        values.put("author", author);
+        values.put("body", body);
+        values.put("thumb_url", "http://example.com/thumb.jpg");
+        values.put("photo_url", "http://example.com/photo.jpg");
+        values.put("published_date", publishedDate);
+        return db.insertOrThrow("items", null, values);
+    }
+
+    private static void assertRow(Cursor cursor, long id, String title, String body,
+                                  String author) {
+        assertEquals(id, cursor.getLong(0));
+        assertEquals(title, cursor.getString(1));
+        assertEquals(body, cursor.getString(2));
+        assertEquals(TIME, cursor.getLong(3));
+        assertEquals(author, cursor.getString(4));
+    }
+
+    private static List<Long> queryIds(SQLiteDatabase db) {
+        final List<Long> ids = new ArrayList<Long>();
+        final Cursor cursor = db.rawQuery("SELECT _id FROM items ORDER BY _id", null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static List<Long> listOf(long... ids) {
+        final List<Long> list = new ArrayList<Long>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String table) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type='table' AND name=?",
+                new String[] { table }) > 0;
+    }
+
+    /**
+     * Name, type, constraints and default of every column, in order.
+     */
+    private static List<String> describeTable(SQLiteDatabase db, String table) {
+        final List<String> columns = new ArrayList<String>();
+        final Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            assertNotNull(cursor);
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name"))
+                        + " " + cursor.getString(cursor.getColumnIndexOrThrow("type"))
+                        + " notnull=" + cursor.getInt(cursor.getColumnIndexOrThrow("notnull"))
+                        + " default=" + cursor.getString(cursor.getColumnIndexOrThrow("dflt_value"))
+                        + " pk=" + cursor.getInt(cursor.getColumnIndexOrThrow("pk")));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Name, uniqueness and columns of every index, sorted by name.
+     */
+    private static List<String> describeIndexes(SQLiteDatabase db, String table) {
+        final List<String> indexes = new ArrayList<String>();
+        final Cursor cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                final String name = cursor.getString(cursor.getColumnIndexOrThrow("name"));
+                indexes.add(name + " unique="
+                        + cursor.getInt(cursor.getColumnIndexOrThrow("unique"))
+                        + " " + describeIndexColumns(db, name));
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private static List<String> describeIndexColumns(SQLiteDatabase db, String index) {
+        final List<String> columns = new ArrayList<String>();
+        final Cursor cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
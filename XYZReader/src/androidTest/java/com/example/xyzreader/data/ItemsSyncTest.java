@@ -0,0 +1,104 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a full {@link ItemsSync} that inserts, updates and prunes articles while another thread
+ * keeps counting the rows. Sync used to delete every row and insert the feed again, so the two
+ * had to commit together; it now writes rows in place, and readers must never see the table
+ * emptied or partly pruned.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemsSyncTest {
+    private static final String TAG = "ItemsSync";
+    private static final int EXISTING_ROWS = 2000;
+    /** Stored articles missing from the new feed, and new articles in it. */
+    private static final int REPLACED_ROWS = 500;
+    private static final int BODY_LENGTH = 500;
+
+    private ProviderTestContext mContext;
+    private ItemsProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new ProviderTestContext(InstrumentationRegistry.getTargetContext(), TAG);
+        mProvider = mContext.createProvider();
+        mProvider.bulkInsert(ItemsContract.Items.buildDirUri(),
+                new SyntheticArticles(0).createAll(EXISTING_ROWS, BODY_LENGTH));
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void fullSyncNeverShowsPartialTable() throws Exception {
+        final ItemsSync.Stats[] stats = new ItemsSync.Stats[1];
+        final Throwable[] failure = new Throwable[1];
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // A different seed, so every article still in the feed has changed
+                    final SyntheticArticles articles = new SyntheticArticles(1);
+                    final ItemsSync sync = new ItemsSync(mContext.getContentResolver());
+                    sync.begin();
+                    for (int i = REPLACED_ROWS; i < EXISTING_ROWS + REPLACED_ROWS; i++) {
+                        sync.offer(articles.create(i, BODY_LENGTH));
+                    }
+                    stats[0] = sync.finish(true);
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, TAG);
+
+        final List<Integer> counts = new ArrayList<Integer>();
+        writer.start();
+        while (writer.isAlive()) {
+            counts.add(countRows());
+        }
+        writer.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+
+        assertEquals(REPLACED_ROWS, stats[0].inserted);
+        assertEquals(EXISTING_ROWS - REPLACED_ROWS, stats[0].updated);
+        assertEquals(REPLACED_ROWS, stats[0].deleted);
+        assertEquals(EXISTING_ROWS, countRows());
+        assertTrue("No reads overlapped the sync", counts.size() > 10);
+        for (int i = 0; i < counts.size(); i++) {
+            assertTrue("Reader saw " + counts.get(i) + " rows", counts.get(i) >= EXISTING_ROWS);
+            // Rows only go away in the final prune, all of them at once
+            if (i > 0 && counts.get(i) < counts.get(i - 1)) {
+                assertEquals(EXISTING_ROWS, (int) counts.get(i));
+            }
+        }
+    }
+
+    private int countRows() {
+        final Cursor cursor = mProvider.query(ItemsContract.Items.buildDirUri(),
+                new String[] { ItemsContract.Items._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
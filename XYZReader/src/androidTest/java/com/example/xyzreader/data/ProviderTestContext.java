@@ -0,0 +1,147 @@
+package com.example.xyzreader.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.mock.MockContentResolver;
+import android.util.SparseBooleanArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Context for an {@link ItemsProvider} under test: its database and body files live in a
+ * directory of their own instead of the app's, boolean resources can be overridden, and change
+ * notifications are recorded instead of delivered.
+ */
+class ProviderTestContext extends ContextWrapper {
+    private final File mDir;
+    private final SparseBooleanArray mBooleans = new SparseBooleanArray();
+    private final List<Uri> mNotifications = new ArrayList<Uri>();
+    private final MockContentResolver mResolver = new MockContentResolver() {
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+            synchronized (mNotifications) {
+                mNotifications.add(uri);
+            }
+        }
+    };
+    private Resources mResources;
+
+    ProviderTestContext(Context base, String name) {
+        super(base);
+        mDir = new File(base.getCacheDir(), name);
+        deleteRecursively(mDir);
+        mDir.mkdirs();
+    }
+
+    /** Answer {@code id} with {@code value} for providers created after this call. */
+    ProviderTestContext setBoolean(int id, boolean value) {
+        mBooleans.put(id, value);
+        return this;
+    }
+
+    /** Create a provider on this context, as the system would for the app's authority. */
+    ItemsProvider createProvider() {
+        final ProviderInfo info = new ProviderInfo();
+        info.authority = ItemsContract.CONTENT_AUTHORITY;
+        final ItemsProvider provider = new ItemsProvider();
+        provider.attachInfo(this, info);
+        mResolver.addProvider(ItemsContract.CONTENT_AUTHORITY, provider);
+        return provider;
+    }
+
+    /** Notifications sent since the last call, oldest first. */
+    List<Uri> takeNotifications() {
+        synchronized (mNotifications) {
+            final List<Uri> taken = new ArrayList<Uri>(mNotifications);
+            mNotifications.clear();
+            return taken;
+        }
+    }
+
+    /** Remove the database and body files. Providers created on this context must be done. */
+    void delete() {
+        deleteRecursively(mDir);
+    }
+
+    /** Size of the database file and its write-ahead log, in bytes. */
+    long getDatabaseSize() {
+        long size = 0;
+        for (File file : mDir.listFiles()) {
+            if (file.isFile()) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public MockContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    @Override
+    public Resources getResources() {
+        if (mResources == null) {
+            final Resources base = super.getResources();
+            mResources = new Resources(base.getAssets(), base.getDisplayMetrics(),
+                    base.getConfiguration()) {
+                @Override
+                public boolean getBoolean(int id) {
+                    final int index = mBooleans.indexOfKey(id);
+                    return index >= 0 ? mBooleans.valueAt(index) : super.getBoolean(id);
+                }
+            };
+        }
+        return mResources;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return mDir;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return new File(mDir, name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+            SQLiteDatabase.CursorFactory factory) {
+        return openOrCreateDatabase(name, mode, factory, null);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+            SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+        int flags = SQLiteDatabase.CREATE_IF_NECESSARY;
+        if ((mode & MODE_ENABLE_WRITE_AHEAD_LOGGING) != 0) {
+            flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        }
+        return SQLiteDatabase.openDatabase(getDatabasePath(name).getPath(), factory, flags,
+                errorHandler);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return SQLiteDatabase.deleteDatabase(getDatabasePath(name));
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.xyzreader.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explains every query the provider serves against a freshly created schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanVerifierTest {
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        new ItemsDatabase(InstrumentationRegistry.getTargetContext()).onCreate(mDb);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void everyQueryIsIndexed() {
+        final List<String> badPlans = QueryPlanVerifier.findBadPlans(mDb);
+        assertTrue("Unindexed query plans:\n  " + TextUtils.join("\n  ", badPlans),
+                badPlans.isEmpty());
+    }
+
+    @Test
+    public void droppedIndexIsReported() {
+        mDb.execSQL("DROP INDEX items_published_time");
+        assertFalse(QueryPlanVerifier.findBadPlans(mDb).isEmpty());
+    }
+}
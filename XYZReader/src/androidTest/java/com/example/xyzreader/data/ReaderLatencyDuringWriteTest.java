@@ -0,0 +1,162 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the list's first-page query on one thread while another commits a large yielding write,
+ * and compares it with the same query on an idle database. With write-ahead logging readers
+ * never wait for the writer, so their latency must not grow with the size of the write.
+ * Percentiles are logged under {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReaderLatencyDuringWriteTest {
+    private static final String TAG = "ReaderLatency";
+    private static final int EXISTING_ROWS = 1000;
+    private static final int WRITTEN_ROWS = 20000;
+    private static final int BODY_LENGTH = 500;
+    private static final int PAGE_SIZE = 20;
+    private static final int IDLE_SAMPLES = 200;
+    /** Allowance on top of the idle latency, for a reader that shares the CPU with the writer. */
+    private static final long CONTENTION_SLACK_MS = 50;
+
+    private ProviderTestContext mContext;
+    private ItemsProvider mProvider;
+    private SyntheticArticles mArticles;
+
+    @Before
+    public void setUp() {
+        mContext = new ProviderTestContext(InstrumentationRegistry.getTargetContext(), TAG);
+        mProvider = mContext.createProvider();
+        mArticles = new SyntheticArticles(0);
+        mProvider.bulkInsert(ItemsContract.Items.buildDirUri(),
+                mArticles.createAll(EXISTING_ROWS, BODY_LENGTH));
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void readersDoNotWaitForBulkInsert() throws Exception {
+        final ContentValues[] rows = new ContentValues[WRITTEN_ROWS];
+        final String body = mArticles.body(BODY_LENGTH);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = mArticles.create(EXISTING_ROWS + i, body);
+        }
+        measure("bulkInsert", new Runnable() {
+            @Override
+            public void run() {
+                mProvider.bulkInsert(ItemsContract.Items.buildDirUri(), rows);
+            }
+        });
+    }
+
+    @Test
+    public void readersDoNotWaitForApplyBatch() throws Exception {
+        // Rewrite every existing row, yielding the way ItemsBatchWriter does
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int round = 0; round < WRITTEN_ROWS / EXISTING_ROWS; round++) {
+            for (int id = 1; id <= EXISTING_ROWS; id++) {
+                operations.add(ContentProviderOperation
+                        .newUpdate(ItemsContract.Items.buildItemUri(id))
+                        .withValue(ItemsContract.Items.TITLE, mArticles.words(6))
+                        .withYieldAllowed(operations.size()
+                                % ItemsBatchWriter.DEFAULT_YIELD_INTERVAL == 0)
+                        .build());
+            }
+        }
+        measure("applyBatch", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mProvider.applyBatch(operations);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private void measure(String name, final Runnable write) throws InterruptedException {
+        final List<Long> idle = new ArrayList<Long>();
+        for (int i = 0; i < IDLE_SAMPLES; i++) {
+            idle.add(timeFirstPage());
+        }
+
+        final long[] writeElapsed = new long[1];
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                write.run();
+                writeElapsed[0] = SystemClock.elapsedRealtime() - start;
+            }
+        }, name);
+        final List<Long> busy = new ArrayList<Long>();
+        writer.start();
+        while (writer.isAlive()) {
+            busy.add(timeFirstPage());
+        }
+        writer.join();
+
+        assertTrue("No reads overlapped the write", busy.size() > 10);
+        Collections.sort(idle);
+        Collections.sort(busy);
+        Log.i(TAG, name + " of " + writeElapsed[0] + "ms; idle reads " + describe(idle)
+                + "; reads during the write " + describe(busy));
+        assertTrue("Reads waited for the writer: " + describe(busy),
+                percentile(busy, 95) <= percentile(idle, 95) + CONTENTION_SLACK_MS
+                        && max(busy) < writeElapsed[0] / 2);
+    }
+
+    /** Read the list's first page the way {@link PagedArticleList} does, in milliseconds. */
+    private long timeFirstPage() {
+        final Uri uri = ItemsContract.Items.buildPageUri(ItemsContract.Items.buildDirUri(), 0,
+                PAGE_SIZE);
+        final long start = SystemClock.elapsedRealtime();
+        final Cursor cursor = mProvider.query(uri, ArticleLoader.ListQuery.PROJECTION, null,
+                null, ItemsContract.Items.KEYSET_SORT);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(ArticleLoader.ListQuery.TITLE);
+            }
+        } finally {
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        return sorted.get((sorted.size() - 1) * percentile / 100);
+    }
+
+    private static long max(List<Long> sorted) {
+        return sorted.get(sorted.size() - 1);
+    }
+
+    private static String describe(List<Long> sorted) {
+        return sorted.size() + " samples, median " + percentile(sorted, 50) + "ms, p95 "
+                + percentile(sorted, 95) + "ms, max " + max(sorted) + "ms";
+    }
+}
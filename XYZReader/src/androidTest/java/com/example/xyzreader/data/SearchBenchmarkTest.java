@@ -0,0 +1,150 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs queries of several kinds against a 50k-article corpus through
+ * {@link ItemsContract.Items#buildSearchUri}, reading every result the way
+ * {@link ArticleSearcher} does, and logs the latency of each kind under {@value #TAG}. Words and
+ * word pairs of the sort users look up must come back in single-digit milliseconds. Common words
+ * and two-letter prefixes match a large share of the corpus, and every match has to be ranked,
+ * so they are logged for reference only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmarkTest {
+    private static final String TAG = "SearchBenchmark";
+    private static final int ARTICLES = 50000;
+    private static final int BODY_LENGTH = 1000;
+    private static final int CHUNK_SIZE = 1000;
+    private static final int QUERIES_PER_KIND = 20;
+    private static final long MAX_MEDIAN_MILLIS = 9;
+
+    private ProviderTestContext mContext;
+    private ItemsProvider mProvider;
+    private Random mRandom;
+
+    @Before
+    public void setUp() {
+        // Bodies in files only slow the setup down; the index holds its own copy either way
+        mContext = new ProviderTestContext(InstrumentationRegistry.getTargetContext(), TAG)
+                .setBoolean(R.bool.store_article_bodies_in_files, false);
+        mProvider = mContext.createProvider();
+        final SyntheticArticles articles = new SyntheticArticles(0);
+        for (int start = 0; start < ARTICLES; start += CHUNK_SIZE) {
+            final ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = articles.create(start + i, BODY_LENGTH);
+            }
+            mProvider.bulkInsert(ItemsContract.Items.buildDirUri(), chunk);
+        }
+        mRandom = new Random(0);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.delete();
+    }
+
+    @Test
+    public void searchLatency() {
+        final List<String> rare = words(2000, SyntheticArticles.VOCABULARY_SIZE);
+        final List<String> uncommon = words(200, 2000);
+        final List<String> pairs = new ArrayList<String>();
+        for (int i = 0; i < QUERIES_PER_KIND; i++) {
+            pairs.add(uncommon.get(i) + " " + rare.get(QUERIES_PER_KIND - 1 - i));
+        }
+        final Map<String, List<String>> typical = new LinkedHashMap<String, List<String>>();
+        typical.put("rare words", rare);
+        typical.put("uncommon words", uncommon);
+        typical.put("word pairs", pairs);
+
+        final Map<String, List<String>> broad = new LinkedHashMap<String, List<String>>();
+        broad.put("common words", words(0, 200));
+        final List<String> prefixes = new ArrayList<String>();
+        for (String word : words(0, SyntheticArticles.VOCABULARY_SIZE)) {
+            prefixes.add(word.substring(0, 2));
+        }
+        broad.put("two-letter prefixes", prefixes);
+
+        // Once over everything, so the first kind measured does not pay for a cold cache
+        for (List<String> queries : typical.values()) {
+            time(queries);
+        }
+        for (List<String> queries : broad.values()) {
+            time(queries);
+        }
+
+        final List<Long> typicalLatencies = new ArrayList<Long>();
+        for (Map.Entry<String, List<String>> kind : typical.entrySet()) {
+            final List<Long> latencies = time(kind.getValue());
+            log(kind.getKey(), latencies);
+            typicalLatencies.addAll(latencies);
+        }
+        for (Map.Entry<String, List<String>> kind : broad.entrySet()) {
+            log(kind.getKey(), time(kind.getValue()));
+        }
+
+        final long median = log("typical queries", typicalLatencies);
+        assertTrue("Median search latency " + median + "ms", median <= MAX_MEDIAN_MILLIS);
+    }
+
+    /** Words of frequency rank {@code from} up to {@code to}, picked at random. */
+    private List<String> words(int from, int to) {
+        final List<String> words = new ArrayList<String>();
+        for (int i = 0; i < QUERIES_PER_KIND; i++) {
+            words.add(SyntheticArticles.getWord(from + mRandom.nextInt(to - from)));
+        }
+        return words;
+    }
+
+    private List<Long> time(List<String> queries) {
+        final List<Long> latencies = new ArrayList<Long>();
+        for (String query : queries) {
+            final long start = SystemClock.elapsedRealtime();
+            final Cursor cursor = mProvider.query(ItemsContract.Items.buildSearchUri(query),
+                    ArticleSearcher.SearchQuery.PROJECTION, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(ArticleSearcher.SearchQuery.SNIPPET);
+                }
+            } finally {
+                cursor.close();
+            }
+            latencies.add(SystemClock.elapsedRealtime() - start);
+        }
+        return latencies;
+    }
+
+    /** @return the median of {@code latencies} */
+    private static long log(String kind, List<Long> latencies) {
+        final Long[] sorted = latencies.toArray(new Long[latencies.size()]);
+        Arrays.sort(sorted);
+        final long median = sorted[sorted.length / 2];
+        Log.i(TAG, kind + " over " + ARTICLES + " articles: median " + median + "ms, p95 "
+                + sorted[(sorted.length - 1) * 95 / 100] + "ms, max " + sorted[sorted.length - 1]
+                + "ms");
+        return median;
+    }
+}
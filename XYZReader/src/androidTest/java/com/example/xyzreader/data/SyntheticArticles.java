@@ -0,0 +1,116 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+
+import java.util.Random;
+
+/**
+ * Articles shaped like the feed's, for benchmarks that need more rows than a real feed has.
+ * Words follow a Zipf-like distribution over a vocabulary of {@link #VOCABULARY_SIZE}, as in
+ * natural text: a few words are in nearly every article, most in only a few. The same seed
+ * always yields the same articles.
+ */
+public class SyntheticArticles {
+    /** Distinct words; the rank of a word in {@link #getWord} is its frequency rank. */
+    public static final int VOCABULARY_SIZE = 10000;
+
+    /** The most frequent words; the rest are made up of {@link #SYLLABLES}. */
+    private static final String[] COMMON_WORDS = {
+            "reader", "article", "history", "language", "river", "engine", "garden", "winter",
+            "letter", "station", "market", "theory", "island", "signal", "harbour", "machine",
+            "journey", "thunder", "crystal", "lantern", "meadow", "orbit", "canvas", "summit",
+    };
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ne", "ru", "sa", "to", "vi", "ze", "po", "da", "fe",
+    };
+    private static final String[] VOCABULARY = buildVocabulary();
+    private static final String[] AUTHORS = {
+            "Ada Lovelace", "Charles Dickens", "Jane Austen", "Mark Twain", "Virginia Woolf",
+            "Herman Melville", "Mary Shelley", "Leo Tolstoy",
+    };
+    /** Prefix of the server id of every synthetic article. */
+    public static final String SERVER_ID_PREFIX = "synthetic-";
+
+    private static final long FIRST_PUBLISHED = 1397606400000L;
+
+    private final Random mRandom;
+
+    public SyntheticArticles(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * {@code count} articles ready for {@link ItemsProvider#bulkInsert}, with bodies of about
+     * {@code bodyLength} chars.
+     */
+    public ContentValues[] createAll(int count, int bodyLength) {
+        final ContentValues[] articles = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            articles[i] = create(i, bodyLength);
+        }
+        return articles;
+    }
+
+    public ContentValues create(int index, int bodyLength) {
+        return create(index, body(bodyLength));
+    }
+
+    public ContentValues create(int index, String body) {
+        final long published = FIRST_PUBLISHED + index * 60000L;
+        final ContentValues values = new ContentValues();
+        values.put(ItemsContract.Items.SERVER_ID, SERVER_ID_PREFIX + index);
+        values.put(ItemsContract.Items.TITLE, words(6));
+        values.put(ItemsContract.Items.AUTHOR, AUTHORS[mRandom.nextInt(AUTHORS.length)]);
+        values.put(ItemsContract.Items.BODY, body);
+        values.put(ItemsContract.Items.THUMB_URL, "https://example.com/thumb/" + index + ".jpg");
+        values.put(ItemsContract.Items.PHOTO_URL, "https://example.com/photo/" + index + ".jpg");
+        values.put(ItemsContract.Items.ASPECT_RATIO, 1.5f);
+        values.put(ItemsContract.Items.PUBLISHED_DATE,
+                new PublishedDateParser().format(published));
+        values.put(ItemsContract.Items.PUBLISHED_TIME, published);
+        values.put(ItemsContract.Items.CONTENT_HASH, ItemsSync.fingerprint(values));
+        return values;
+    }
+
+    /** Paragraphs of words separated by line breaks, the way feed bodies are. */
+    public String body(int length) {
+        final StringBuilder body = new StringBuilder(length + 16);
+        while (body.length() < length) {
+            body.append(words(40 + mRandom.nextInt(40))).append(".<br /><br />");
+        }
+        return body.toString();
+    }
+
+    public String words(int count) {
+        final StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            // Log-uniform ranks, so the chance of a word falls off as one over its rank
+            final int rank = (int) Math.pow(VOCABULARY_SIZE, mRandom.nextDouble()) - 1;
+            words.append(i == 0 ? "" : " ").append(VOCABULARY[rank]);
+        }
+        return words.toString();
+    }
+
+    /** The word of frequency rank {@code rank}, 0 being the most frequent. */
+    public static String getWord(int rank) {
+        return VOCABULARY[rank];
+    }
+
+    private static String[] buildVocabulary() {
+        final String[] vocabulary = new String[VOCABULARY_SIZE];
+        System.arraycopy(COMMON_WORDS, 0, vocabulary, 0, COMMON_WORDS.length);
+        final int n = SYLLABLES.length;
+        for (int i = COMMON_WORDS.length; i < VOCABULARY_SIZE; i++) {
+            // Three syllables for the first n^3 made-up words, then four
+            final int index = i - COMMON_WORDS.length;
+            final StringBuilder word = new StringBuilder(SYLLABLES[index % n])
+                    .append(SYLLABLES[index / n % n])
+                    .append(SYLLABLES[index / (n * n) % n]);
+            if (index >= n * n * n) {
+                word.append(SYLLABLES[index / (n * n * n) % n]);
+            }
+            vocabulary[i] = word.toString();
+        }
+        return vocabulary;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.xyzreader.remote;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.xyzreader.data.ItemsContract;
+import com.example.xyzreader.data.SyntheticArticles;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fetches the same synthetic feed from a local server the way sync used to, as plain text that
+ * is parsed once it has all arrived, and the way {@link FeedClient} does now, compressed and
+ * parsed while it inflates. Both are timed over loopback and over a throttled link, and the bytes
+ * each transfers are logged under {@value #TAG}. The old path is served uncompressed, like the
+ * static feed host does. Synthetic bodies are made of a limited vocabulary, so their compression
+ * ratio is only indicative.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedTransportBenchmarkTest {
+    private static final String TAG = "FeedTransportBenchmark";
+    private static final int ARTICLES = 500;
+    private static final int BODY_LENGTH = 4 * 1024;
+    private static final int RUNS = 3;
+    /** Bytes per second of the throttled link, roughly a fair mobile connection. */
+    private static final long THROTTLED_RATE = 1024 * 1024;
+
+    private Context mContext;
+    private MockWebServer mServer;
+    private File mCacheDir;
+    private FeedClient mFeedClient;
+    private byte[] mPlain;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mServer = new MockWebServer();
+        mServer.start();
+        mCacheDir = new File(mContext.getCacheDir(), TAG);
+        mFeedClient = new FeedClient(mCacheDir,
+                mContext.getSharedPreferences(TAG, Context.MODE_PRIVATE));
+        mPlain = buildFeed().getBytes("UTF-8");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        deleteRecursively(mCacheDir);
+        mContext.getSharedPreferences(TAG, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    @Test
+    public void compressedFeedTransfersLess() throws Exception {
+        final byte[] gzip = compress(mPlain, false);
+        final byte[] deflate = compress(mPlain, true);
+
+        for (long rate : new long[] { 0, THROTTLED_RATE }) {
+            final String link = rate == 0 ? "loopback" : rate / 1024 + "KB/s";
+            final long plain = median(link, "plain, parsed after download", mPlain, null, rate);
+            final long gzipped = median(link, "gzip, parsed while inflating", gzip,
+                    "gzip", rate);
+            median(link, "deflate, parsed while inflating", deflate,
+                    "deflate", rate);
+            Log.i(TAG, link + ": gzip feed fetched and parsed in " + gzipped + "ms instead of "
+                    + plain + "ms");
+            if (rate != 0) {
+                assertTrue("Compressed feed took " + gzipped + "ms instead of " + plain + "ms",
+                        gzipped < plain);
+            }
+        }
+
+        Log.i(TAG, "Feed of " + ARTICLES + " articles: " + mPlain.length / 1024 + "KB plain, "
+                + gzip.length / 1024 + "KB gzip, " + deflate.length / 1024 + "KB deflate");
+        assertTrue(gzip.length < mPlain.length);
+        assertTrue(deflate.length < mPlain.length);
+    }
+
+    /**
+     * Fetch and parse {@code body} {@link #RUNS} times.
+     *
+     * @param encoding content encoding to serve the body with, or null for the old plain path
+     * @param rate     bytes per second to throttle the body to, or 0 for no limit
+     * @return median wall time in milliseconds
+     */
+    private long median(String link, String name, byte[] body, String encoding, long rate)
+            throws Exception {
+        final long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            final MockResponse response = new MockResponse()
+                    .setHeader("Cache-Control", "no-store")
+                    .setBody(new Buffer().write(body));
+            if (encoding != null) {
+                response.setHeader("Content-Encoding", encoding);
+            }
+            if (rate != 0) {
+                // Ten bursts a second, so the link is not idle while the client catches up
+                response.throttleBody(rate / 10, 100, TimeUnit.MILLISECONDS);
+            }
+            mServer.enqueue(response);
+
+            final URL url = mServer.url("/feed.json").url();
+            final long start = SystemClock.elapsedRealtime();
+            final int count = encoding == null ? fetchPlain(url) : fetchStreaming(url);
+            times[i] = SystemClock.elapsedRealtime() - start;
+            assertEquals(ARTICLES, count);
+
+            final RecordedRequest request = mServer.takeRequest();
+            if (encoding != null) {
+                assertTrue(request.getHeader("Accept-Encoding").contains(encoding));
+            }
+        }
+        Arrays.sort(times);
+        Log.i(TAG, link + ", " + name + ": " + body.length / 1024 + "KB transferred, median "
+                + times[RUNS / 2] + "ms, max " + times[RUNS - 1] + "ms");
+        return times[RUNS / 2];
+    }
+
+    /** The fetch sync used before: read the whole body into a string, then tokenize it. */
+    private static int fetchPlain(URL url) throws IOException, JSONException {
+        final OkHttpClient client = new OkHttpClient();
+        final Request request = new Request.Builder()
+                .url(url)
+                .build();
+        final Response response = client.newCall(request).execute();
+        final JSONArray array = (JSONArray) new JSONTokener(response.body().string()).nextValue();
+        int count = 0;
+        for (int i = 0; i < array.length(); i++) {
+            array.getJSONObject(i);
+            count++;
+        }
+        return count;
+    }
+
+    private int fetchStreaming(URL url) throws IOException, JSONException {
+        final FeedClient.Feed feed = mFeedClient.open(url, null);
+        try {
+            final InputStreamReader in = new InputStreamReader(
+                    FeedClient.decode(feed.getBody(), feed.getEncoding()), "UTF-8");
+            return RemoteEndpointUtil.readPage(in, new RemoteEndpointUtil.ItemCallback() {
+                @Override
+                public void onItem(JSONObject item) {
+                }
+            }).count;
+        } finally {
+            feed.close();
+        }
+    }
+
+    private static String buildFeed() throws JSONException {
+        final SyntheticArticles articles = new SyntheticArticles(0);
+        final JSONArray feed = new JSONArray();
+        for (int i = 0; i < ARTICLES; i++) {
+            final ContentValues values = articles.create(i, BODY_LENGTH);
+            final JSONObject item = new JSONObject();
+            item.put("id", values.getAsString(ItemsContract.Items.SERVER_ID));
+            item.put("title", values.getAsString(ItemsContract.Items.TITLE));
+            item.put("author", values.getAsString(ItemsContract.Items.AUTHOR));
+            item.put("body", values.getAsString(ItemsContract.Items.BODY));
+            item.put("thumb", values.getAsString(ItemsContract.Items.THUMB_URL));
+            item.put("photo", values.getAsString(ItemsContract.Items.PHOTO_URL));
+            item.put("aspect_ratio", values.getAsString(ItemsContract.Items.ASPECT_RATIO));
+            item.put("published_date", values.getAsString(ItemsContract.Items.PUBLISHED_DATE));
+            feed.put(item);
+        }
+        return feed.toString();
+    }
+
+    /** Compress {@code data} with gzip, or zlib-wrapped deflate. */
+    private static byte[] compress(byte[] data, boolean deflate) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = deflate
+                ? new DeflaterOutputStream(bytes) : new GZIPOutputStream(bytes);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
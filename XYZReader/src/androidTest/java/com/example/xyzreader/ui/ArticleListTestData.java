@@ -0,0 +1,48 @@
+package com.example.xyzreader.ui;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.example.xyzreader.data.ItemsContract;
+import com.example.xyzreader.data.RefreshCoordinator;
+import com.example.xyzreader.data.SyntheticArticles;
+
+/**
+ * Synthetic articles in the app's own database, for tests that drive
+ * {@link ArticleListActivity}. While they are in place the activity's launch refresh is held
+ * back, since a full sync would prune them.
+ */
+class ArticleListTestData {
+    /** Rows per bulk insert, so a large table is never held in memory at once. */
+    private static final int CHUNK_SIZE = 1000;
+
+    private ArticleListTestData() {
+    }
+
+    /** Replace any synthetic articles with {@code count} new ones. */
+    static void insert(Context context, int count, int bodyLength) {
+        delete(context);
+        RefreshCoordinator.getInstance(context).cancel();
+        RefreshCoordinator.getInstance(context).setFreshnessWindow(Long.MAX_VALUE);
+
+        final ContentResolver resolver = context.getContentResolver();
+        final SyntheticArticles articles = new SyntheticArticles(count);
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final ContentValues[] chunk = new ContentValues[Math.min(CHUNK_SIZE, count - start)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = articles.create(start + i, bodyLength);
+            }
+            resolver.bulkInsert(ItemsContract.Items.buildDirUri(), chunk);
+        }
+    }
+
+    /** Remove the synthetic articles and let refreshes run again. */
+    static void delete(Context context) {
+        context.getContentResolver().delete(ItemsContract.Items.buildDirUri(),
+                ItemsContract.Items.SERVER_ID + " LIKE ?",
+                new String[] { SyntheticArticles.SERVER_ID_PREFIX + "%" });
+        RefreshCoordinator.getInstance(context)
+                .setFreshnessWindow(RefreshCoordinator.DEFAULT_FRESHNESS_WINDOW);
+    }
+}
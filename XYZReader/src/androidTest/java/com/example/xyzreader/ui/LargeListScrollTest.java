@@ -0,0 +1,132 @@
+package com.example.xyzreader.ui;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls the list over a 100k-row table at its start, middle and end, and checks that frame
+ * times and heap use stay the same wherever it is: the list only ever holds a window of pages,
+ * and deep pages are read from the index. Frame times and heap use per position are logged under
+ * {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LargeListScrollTest {
+    private static final String TAG = "LargeListScroll";
+    private static final int ARTICLES = 100000;
+    private static final int BODY_LENGTH = 200;
+    private static final int[] START_POSITIONS = { 0, ARTICLES / 2, ARTICLES - 10000 };
+    private static final int FRAMES = 300;
+    private static final int PIXELS_PER_FRAME = 60;
+    private static final long LOAD_TIMEOUT = 60000;
+    /** Settling time after a jump, for the pages around the new position to load. */
+    private static final long SETTLE_DELAY = 500;
+    /** Growth of the live heap between the first and any later position. */
+    private static final long MAX_HEAP_GROWTH = 4 * 1024 * 1024;
+    /** Share of frames allowed to miss their deadline, for GC and the device's own work. */
+    private static final double MAX_JANKY_SHARE = 0.1;
+
+    @Rule
+    public ActivityTestRule<ArticleListActivity> mActivityRule =
+            new ActivityTestRule<ArticleListActivity>(ArticleListActivity.class, false, false);
+
+    private Context mContext;
+    private Instrumentation mInstrumentation;
+    private RecyclerView mRecyclerView;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        ArticleListTestData.insert(mContext, ARTICLES, BODY_LENGTH);
+        mActivityRule.launchActivity(null);
+        mRecyclerView = (RecyclerView) mActivityRule.getActivity().findViewById(R.id.recycler_view);
+    }
+
+    @After
+    public void tearDown() {
+        ArticleListTestData.delete(mContext);
+    }
+
+    @Test
+    public void scrollingAndHeapStayFlat() throws Exception {
+        awaitAllRows();
+
+        long firstHeap = -1;
+        for (final int start : START_POSITIONS) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mRecyclerView.scrollToPosition(start);
+                }
+            });
+            mInstrumentation.waitForIdleSync();
+            SystemClock.sleep(SETTLE_DELAY);
+
+            final ScrollFrameRecorder recorder =
+                    new ScrollFrameRecorder(mRecyclerView, PIXELS_PER_FRAME, FRAMES);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    recorder.start();
+                }
+            });
+            recorder.await();
+            mInstrumentation.waitForIdleSync();
+
+            final long heap = measureHeap();
+            if (firstHeap < 0) {
+                firstHeap = heap;
+            }
+            Log.i(TAG, "From row " + start + " of " + ARTICLES + ": " + recorder.describe()
+                    + "; live heap " + heap / 1024 + "KB");
+            assertTrue("Heap grew by " + (heap - firstHeap) / 1024 + "KB at row " + start,
+                    heap - firstHeap <= MAX_HEAP_GROWTH);
+            assertTrue("Janky scrolling at row " + start + ": " + recorder.describe(),
+                    recorder.getJankyFrames() <= FRAMES * MAX_JANKY_SHARE);
+        }
+    }
+
+    /** Wait for the list to know about every row. */
+    private void awaitAllRows() {
+        final long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT;
+        final int[] count = new int[1];
+        while (SystemClock.uptimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    count[0] = mRecyclerView.getAdapter().getItemCount();
+                }
+            });
+            if (count[0] >= ARTICLES) {
+                return;
+            }
+            SystemClock.sleep(100);
+        }
+        throw new AssertionError("List only has " + count[0] + " rows");
+    }
+
+    /** Bytes of heap still in use after a full collection. */
+    private static long measureHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
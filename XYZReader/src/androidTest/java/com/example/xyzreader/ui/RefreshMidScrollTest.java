@@ -0,0 +1,161 @@
+package com.example.xyzreader.ui;
+
+import android.app.Instrumentation;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.xyzreader.R;
+import com.example.xyzreader.data.ItemsContract;
+import com.example.xyzreader.data.SyntheticArticles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls the list steadily while a refresh lands that inserts, updates and deletes articles, and
+ * compares its frame times with those of the same scroll without a refresh. The list applies the
+ * refresh as a diff, so the refresh must not add janky frames. Both runs are logged under
+ * {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RefreshMidScrollTest {
+    private static final String TAG = "RefreshMidScroll";
+    private static final int ARTICLES = 2000;
+    private static final int BODY_LENGTH = 200;
+    private static final int INSERTED = 50;
+    private static final int UPDATED = 200;
+    private static final int DELETED = 20;
+    private static final int FRAMES = 300;
+    private static final int PIXELS_PER_FRAME = 20;
+    /** When the refresh lands, a third of the way into the scroll. */
+    private static final long REFRESH_DELAY = FRAMES / 3 * 16;
+    private static final long LOAD_TIMEOUT = 30000;
+    /** Janky frames the refresh may add, for the odd collection it triggers. */
+    private static final int MAX_ADDED_JANK = 2;
+
+    @Rule
+    public ActivityTestRule<ArticleListActivity> mActivityRule =
+            new ActivityTestRule<ArticleListActivity>(ArticleListActivity.class, false, false);
+
+    private Context mContext;
+    private Instrumentation mInstrumentation;
+    private RecyclerView mRecyclerView;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        ArticleListTestData.insert(mContext, ARTICLES, BODY_LENGTH);
+        mActivityRule.launchActivity(null);
+        mRecyclerView =
+                (RecyclerView) mActivityRule.getActivity().findViewById(R.id.recycler_view);
+    }
+
+    @After
+    public void tearDown() {
+        ArticleListTestData.delete(mContext);
+    }
+
+    @Test
+    public void refreshDoesNotAddJank() throws Exception {
+        awaitRows(ARTICLES);
+
+        final ScrollFrameRecorder quiet = scroll(false);
+        final ScrollFrameRecorder refreshed = scroll(true);
+
+        Log.i(TAG, "Without refresh: " + quiet.describe());
+        Log.i(TAG, "Refresh mid-scroll: " + refreshed.describe());
+        assertTrue("Refresh added jank: " + refreshed.describe(),
+                refreshed.getJankyFrames() <= quiet.getJankyFrames() + MAX_ADDED_JANK);
+        awaitRows(ARTICLES + INSERTED - DELETED);
+    }
+
+    private ScrollFrameRecorder scroll(boolean refresh) throws Exception {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRecyclerView.scrollToPosition(0);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+
+        final ScrollFrameRecorder recorder =
+                new ScrollFrameRecorder(mRecyclerView, PIXELS_PER_FRAME, FRAMES);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+            }
+        });
+        if (refresh) {
+            SystemClock.sleep(REFRESH_DELAY);
+            applyRefresh();
+        }
+        recorder.await();
+        return recorder;
+    }
+
+    /** The writes of a sync that found new, changed and removed articles. */
+    private void applyRefresh() throws Exception {
+        final ContentResolver resolver = mContext.getContentResolver();
+        final SyntheticArticles articles = new SyntheticArticles(1);
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < INSERTED; i++) {
+            // Published after every existing article, so they land at the top
+            operations.add(ContentProviderOperation.newInsert(ItemsContract.Items.buildDirUri())
+                    .withValues(articles.create(ARTICLES + i, BODY_LENGTH))
+                    .build());
+        }
+        for (int i = 0; i < UPDATED; i++) {
+            final ContentValues changed = articles.create(i, BODY_LENGTH);
+            changed.remove(ItemsContract.Items.SERVER_ID);
+            operations.add(ContentProviderOperation.newUpdate(ItemsContract.Items.buildDirUri())
+                    .withSelection(ItemsContract.Items.SERVER_ID + "=?",
+                            new String[] { SyntheticArticles.SERVER_ID_PREFIX + i })
+                    .withValues(changed)
+                    .build());
+        }
+        for (int i = 0; i < DELETED; i++) {
+            operations.add(ContentProviderOperation.newDelete(ItemsContract.Items.buildDirUri())
+                    .withSelection(ItemsContract.Items.SERVER_ID + "=?",
+                            new String[] { SyntheticArticles.SERVER_ID_PREFIX
+                                    + (ARTICLES - 1 - i) })
+                    .build());
+        }
+        resolver.applyBatch(ItemsContract.CONTENT_AUTHORITY, operations);
+    }
+
+    private void awaitRows(int rows) {
+        final long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT;
+        final int[] count = new int[1];
+        while (SystemClock.uptimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    count[0] = mRecyclerView.getAdapter().getItemCount();
+                }
+            });
+            if (count[0] == rows) {
+                return;
+            }
+            SystemClock.sleep(100);
+        }
+        throw new AssertionError("List has " + count[0] + " rows instead of " + rows);
+    }
+}
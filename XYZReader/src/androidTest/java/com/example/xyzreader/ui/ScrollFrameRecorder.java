@@ -0,0 +1,80 @@
+package com.example.xyzreader.ui;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Scrolls a {@link RecyclerView} by a fixed distance every frame, the way a steady fling does,
+ * and records the time between frames. A frame that took longer than the display's refresh
+ * interval shows up as a long interval.
+ */
+class ScrollFrameRecorder implements Choreographer.FrameCallback {
+    /** Refresh interval of a 60Hz display. */
+    static final long FRAME_INTERVAL_NANOS = 16666667L;
+
+    private final RecyclerView mRecyclerView;
+    private final int mPixelsPerFrame;
+    private final long[] mIntervals;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private int mFrames;
+    private long mLastFrameTime;
+
+    ScrollFrameRecorder(RecyclerView recyclerView, int pixelsPerFrame, int frames) {
+        mRecyclerView = recyclerView;
+        mPixelsPerFrame = pixelsPerFrame;
+        mIntervals = new long[frames];
+    }
+
+    /** Start scrolling with the next frame. Must be called on the main thread. */
+    void start() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /** Block until every frame has been scrolled and recorded. */
+    void await() throws InterruptedException {
+        mDone.await();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mLastFrameTime != 0) {
+            mIntervals[mFrames++] = frameTimeNanos - mLastFrameTime;
+        }
+        mLastFrameTime = frameTimeNanos;
+        if (mFrames == mIntervals.length) {
+            mDone.countDown();
+            return;
+        }
+        mRecyclerView.scrollBy(0, mPixelsPerFrame);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /** Frames that took longer than one refresh interval, i.e. dropped at least one frame. */
+    int getJankyFrames() {
+        int janky = 0;
+        for (long interval : mIntervals) {
+            // Half an interval of slack for vsync jitter
+            if (interval > FRAME_INTERVAL_NANOS * 3 / 2) {
+                janky++;
+            }
+        }
+        return janky;
+    }
+
+    /** The {@code percentile}th percentile frame interval, in milliseconds. */
+    double getPercentileMillis(int percentile) {
+        final long[] sorted = mIntervals.clone();
+        Arrays.sort(sorted);
+        return sorted[(sorted.length - 1) * percentile / 100] / 1e6;
+    }
+
+    String describe() {
+        return mIntervals.length + " frames, " + getJankyFrames() + " janky, median "
+                + String.format("%.1f", getPercentileMillis(50)) + "ms, p90 "
+                + String.format("%.1f", getPercentileMillis(90)) + "ms, p99 "
+                + String.format("%.1f", getPercentileMillis(99)) + "ms";
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.xyzreader.ui;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.Toolbar;
+import android.util.Log;
+import android.view.MenuItem;
+
+import com.example.xyzreader.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Types queries into the list's search box at typing speed, backing up over some of them, and
+ * measures the time from each keystroke to the frame that shows its results. The percentiles
+ * are logged under {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchLatencyTest {
+    private static final String TAG = "SearchLatency";
+    private static final int ARTICLES = 5000;
+    private static final int BODY_LENGTH = 2000;
+    /** A fast typist, well inside the searcher's debounce. */
+    private static final long KEYSTROKE_INTERVAL = 80;
+    /** Long enough for the last keystroke of a query to render. */
+    private static final long PAUSE_AFTER_QUERY = 1000;
+    /** Debounce, query and a few frames, on a mid-range device. */
+    private static final long MAX_MEDIAN_LATENCY = 400;
+    private static final String[] QUERIES = {
+            "river engine", "harbour signal", "winter garden", "river", "lantern meadow orbit",
+    };
+
+    @Rule
+    public ActivityTestRule<ArticleListActivity> mActivityRule =
+            new ActivityTestRule<ArticleListActivity>(ArticleListActivity.class, false, false);
+
+    private Context mContext;
+    private Instrumentation mInstrumentation;
+    private SearchView mSearchView;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        ArticleListTestData.insert(mContext, ARTICLES, BODY_LENGTH);
+        mActivityRule.launchActivity(null);
+        // The options menu is only created once the activity's first frame is done
+        mInstrumentation.waitForIdleSync();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Toolbar toolbar =
+                        (Toolbar) mActivityRule.getActivity().findViewById(R.id.my_toolbar);
+                final MenuItem searchItem = toolbar.getMenu().findItem(R.id.search);
+                MenuItemCompat.expandActionView(searchItem);
+                mSearchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        ArticleListTestData.delete(mContext);
+    }
+
+    @Test
+    public void keystrokeToRender() {
+        for (String query : QUERIES) {
+            for (int end = 1; end <= query.length(); end++) {
+                type(query.substring(0, end));
+            }
+            SystemClock.sleep(PAUSE_AFTER_QUERY);
+            // Back up over the last word and retype it, which the cache answers
+            final int lastWord = query.lastIndexOf(' ') + 1;
+            for (int end = query.length() - 1; end >= lastWord; end--) {
+                type(query.substring(0, end));
+            }
+            for (int end = lastWord + 1; end <= query.length(); end++) {
+                type(query.substring(0, end));
+            }
+            SystemClock.sleep(PAUSE_AFTER_QUERY);
+        }
+
+        final long[][] latencies = new long[1][];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                latencies[0] = mActivityRule.getActivity().getSearchLatencies();
+            }
+        });
+        final long[] sorted = latencies[0];
+        Arrays.sort(sorted);
+        assertTrue("No search results were rendered", sorted.length > 0);
+        final long median = sorted[sorted.length / 2];
+        Log.i(TAG, sorted.length + " renders over " + ARTICLES + " articles: median " + median
+                + "ms, p95 " + sorted[(sorted.length - 1) * 95 / 100] + "ms, max "
+                + sorted[sorted.length - 1] + "ms");
+        assertTrue("Median keystroke-to-render latency " + median + "ms",
+                median <= MAX_MEDIAN_LATENCY);
+    }
+
+    private void type(final String text) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mSearchView.setQuery(text, false);
+            }
+        });
+        SystemClock.sleep(KEYSTROKE_INTERVAL);
+    }
+}
@@ -1,44 +1,86 @@
 package com.example.xyzreader.data;
 
 import android.content.Context;
-import android.content.CursorLoader;
 import android.net.Uri;
 
 /**
- * Helper for loading a list of articles or a single article.
+ * Helper for loading a list of articles or a single article. Changes to individual articles are
+ * patched into the loaded rows rather than re-running the query, see {@link DeltaCursorLoader}.
+ * <p>
+ * None of the queries read {@link ItemsContract.Items#BODY}: lists load the {@link ListQuery}
+ * or {@link IdQuery} columns, and the detail screen streams the body separately from
+ * {@link ItemsContract.Items#buildBodyUri}.
  */
-public class ArticleLoader extends CursorLoader {
+public class ArticleLoader extends DeltaCursorLoader {
+    /**
+     * All articles, with the columns needed to render the article list.
+     */
     public static ArticleLoader newAllArticlesInstance(Context context) {
-        return new ArticleLoader(context, ItemsContract.Items.buildDirUri());
+        return new ArticleLoader(context, ItemsContract.Items.buildDirUri(), ListQuery.PROJECTION);
     }
 
+    /**
+     * All article ids, in list order.
+     */
+    public static ArticleLoader newAllArticleIdsInstance(Context context) {
+        return new ArticleLoader(context, ItemsContract.Items.buildDirUri(), IdQuery.PROJECTION);
+    }
+
+    /**
+     * A single article, without its body.
+     */
     public static ArticleLoader newInstanceForItemId(Context context, long itemId) {
-        return new ArticleLoader(context, ItemsContract.Items.buildItemUri(itemId));
+        return new ArticleLoader(context, ItemsContract.Items.buildItemUri(itemId),
+                Query.PROJECTION);
+    }
+
+    private ArticleLoader(Context context, Uri uri, String[] projection) {
+        super(context, uri, projection, null, null, ItemsContract.Items.DEFAULT_SORT);
+    }
+
+    public interface IdQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+        };
+
+        int _ID = 0;
     }
 
-    private ArticleLoader(Context context, Uri uri) {
-        super(context, uri, Query.PROJECTION, null, null, ItemsContract.Items.DEFAULT_SORT);
+    public interface ListQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+                ItemsContract.Items.TITLE,
+                ItemsContract.Items.PUBLISHED_TIME,
+                ItemsContract.Items.AUTHOR,
+                ItemsContract.Items.THUMB_URL,
+                ItemsContract.Items.ASPECT_RATIO,
+        };
+
+        int _ID = 0;
+        int TITLE = 1;
+        int PUBLISHED_TIME = 2;
+        int AUTHOR = 3;
+        int THUMB_URL = 4;
+        int ASPECT_RATIO = 5;
     }
 
     public interface Query {
         String[] PROJECTION = {
                 ItemsContract.Items._ID,
                 ItemsContract.Items.TITLE,
-                ItemsContract.Items.PUBLISHED_DATE,
+                ItemsContract.Items.PUBLISHED_TIME,
                 ItemsContract.Items.AUTHOR,
                 ItemsContract.Items.THUMB_URL,
                 ItemsContract.Items.PHOTO_URL,
                 ItemsContract.Items.ASPECT_RATIO,
-                ItemsContract.Items.BODY,
         };
 
         int _ID = 0;
         int TITLE = 1;
-        int PUBLISHED_DATE = 2;
+        int PUBLISHED_TIME = 2;
         int AUTHOR = 3;
         int THUMB_URL = 4;
         int PHOTO_URL = 5;
         int ASPECT_RATIO = 6;
-        int BODY = 7;
     }
 }
@@ -0,0 +1,288 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Search-as-you-type over {@link ItemsContract.Items#buildSearchUri}. Keystrokes are debounced,
+ * and a query still running when a newer one is issued is cancelled in SQLite. Results of recent
+ * queries are kept, so that returning to a query answers from memory. A query that extends a
+ * cached one can only match items that one matched, so it is run against just those items, or
+ * answered without a query at all when there are none. A query that is not cached keeps the
+ * previous results on screen until its own arrive, so every result shown is exact. Must be used
+ * from the main thread.
+ */
+public class ArticleSearcher {
+    private static final String TAG = "ArticleSearcher";
+
+    /** Pause in typing before a query goes to the database. */
+    private static final long DEBOUNCE_DELAY = 150;
+
+    /** Number of queries whose results are kept. */
+    private static final int CACHE_SIZE = 16;
+
+    /**
+     * Most items a query is narrowed to. Above this the id list costs more to send and parse
+     * than the rows it rules out save.
+     */
+    private static final int MAX_NARROWING_IDS = 1000;
+
+    public interface Callback {
+        /**
+         * Results for {@code query}, in {@link SearchQuery} layout; null when the query has no
+         * words, i.e. the search was cleared.
+         *
+         * @param keystrokeTime {@link SystemClock#uptimeMillis} of the keystroke that produced
+         *                      {@code query}
+         */
+        void onSearchResults(String query, Cursor results, long keystrokeTime);
+    }
+
+    /**
+     * Columns of the search results. The leading columns match {@link ArticleLoader.ListQuery},
+     * so list rows can be bound from either.
+     */
+    public interface SearchQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+                ItemsContract.Items.TITLE,
+                ItemsContract.Items.PUBLISHED_TIME,
+                ItemsContract.Items.AUTHOR,
+                ItemsContract.Items.THUMB_URL,
+                ItemsContract.Items.ASPECT_RATIO,
+                ItemsContract.Items.SNIPPET,
+        };
+
+        int _ID = 0;
+        int TITLE = 1;
+        int PUBLISHED_TIME = 2;
+        int AUTHOR = 3;
+        int THUMB_URL = 4;
+        int ASPECT_RATIO = 5;
+        int SNIPPET = 6;
+    }
+
+    private final ContentResolver mResolver;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mObserver;
+
+    /** Rows per normalized query. */
+    private final LruCache<String, List<Object[]>> mCache =
+            new LruCache<String, List<Object[]>>(CACHE_SIZE);
+
+    /** Bumped whenever the items change; results read before that are not cached. */
+    private int mDataVersion;
+
+    /** Bumped for every new query and on close; results of older ones are dropped. */
+    private int mGeneration;
+
+    private String mQuery = "";
+    private long mKeystrokeTime;
+    private CancellationSignal mCancellationSignal;
+    private boolean mClosed;
+
+    private final Runnable mRunQuery = new Runnable() {
+        @Override
+        public void run() {
+            startQuery(mQuery, mGeneration, mKeystrokeTime);
+        }
+    };
+
+    public ArticleSearcher(Context context, Callback callback) {
+        mResolver = context.getContentResolver();
+        mCallback = callback;
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onItemsChanged();
+            }
+        };
+        mResolver.registerContentObserver(ItemsContract.Items.buildDirUri(), true, mObserver);
+    }
+
+    /**
+     * Search for {@code text}, as typed so far.
+     */
+    public void setQuery(String text) {
+        final long keystrokeTime = SystemClock.uptimeMillis();
+        final String query = normalize(text);
+        if (mClosed || query.equals(mQuery)) {
+            return;
+        }
+        mQuery = query;
+        mKeystrokeTime = keystrokeTime;
+        mGeneration++;
+        cancelQuery();
+
+        if (query.length() == 0) {
+            mCallback.onSearchResults(query, null, keystrokeTime);
+            return;
+        }
+        final List<Object[]> cached = mCache.get(query);
+        if (cached != null) {
+            deliver(query, cached, keystrokeTime);
+            return;
+        }
+        final List<Object[]> candidates = findCandidates(query);
+        if (candidates != null && candidates.isEmpty()) {
+            // A shorter query matched nothing, so this one cannot match anything either
+            mCache.put(query, candidates);
+            deliver(query, candidates, keystrokeTime);
+            return;
+        }
+        mHandler.postDelayed(mRunQuery, DEBOUNCE_DELAY);
+    }
+
+    /**
+     * Stop searching and release the observer. Results of a query still in flight are dropped,
+     * and the searcher cannot be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        mGeneration++;
+        cancelQuery();
+        mResolver.unregisterContentObserver(mObserver);
+    }
+
+    private void onItemsChanged() {
+        mDataVersion++;
+        mCache.evictAll();
+        if (mQuery.length() > 0) {
+            // Keep showing the current rows until the fresh ones are in; a sync notifies once
+            // per batch, the debounce folds a burst of batches into a single query
+            mKeystrokeTime = SystemClock.uptimeMillis();
+            mGeneration++;
+            cancelQuery();
+            mHandler.postDelayed(mRunQuery, DEBOUNCE_DELAY);
+        }
+    }
+
+    /**
+     * Cached results of the longest shorter query that {@code query} extends, the only items
+     * {@code query} can match; null if there are none, or too many to be worth narrowing to.
+     */
+    private List<Object[]> findCandidates(String query) {
+        for (int end = query.length() - 1; end > 0; end--) {
+            final List<Object[]> cached = mCache.get(query.substring(0, end));
+            if (cached != null) {
+                // Shorter queries only match more
+                return cached.size() <= MAX_NARROWING_IDS ? cached : null;
+            }
+        }
+        return null;
+    }
+
+    private void cancelQuery() {
+        mHandler.removeCallbacks(mRunQuery);
+        if (mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+        }
+    }
+
+    private void startQuery(final String query, final int generation, final long keystrokeTime) {
+        final CancellationSignal signal = new CancellationSignal();
+        final int dataVersion = mDataVersion;
+        final List<Object[]> candidates = findCandidates(query);
+        final Uri uri;
+        if (candidates == null) {
+            uri = ItemsContract.Items.buildSearchUri(query);
+        } else {
+            final long[] ids = new long[candidates.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = (Long) candidates.get(i)[SearchQuery._ID];
+            }
+            uri = ItemsContract.Items.buildSearchUri(query, ids);
+        }
+        mCancellationSignal = signal;
+        new AsyncTask<Void, Void, List<Object[]>>() {
+            @Override
+            protected List<Object[]> doInBackground(Void... params) {
+                try {
+                    final Cursor cursor = mResolver.query(uri, SearchQuery.PROJECTION, null,
+                            null, null, signal);
+                    if (cursor == null) {
+                        return null;
+                    }
+                    try {
+                        return readRows(cursor);
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (OperationCanceledException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<Object[]> rows) {
+                if (rows == null) {
+                    return;
+                }
+                if (dataVersion == mDataVersion) {
+                    mCache.put(query, rows);
+                }
+                if (generation == mGeneration) {
+                    mCancellationSignal = null;
+                    deliver(query, rows, keystrokeTime);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void deliver(String query, List<Object[]> rows, long keystrokeTime) {
+        final MatrixCursor cursor = new MatrixCursor(SearchQuery.PROJECTION, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        Log.d(TAG, "\"" + query + "\": " + rows.size() + " results after "
+                + (SystemClock.uptimeMillis() - keystrokeTime) + "ms");
+        mCallback.onSearchResults(query, cursor, keystrokeTime);
+    }
+
+    private static List<Object[]> readRows(Cursor cursor) {
+        final List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            rows.add(new Object[] {
+                    cursor.getLong(SearchQuery._ID),
+                    cursor.getString(SearchQuery.TITLE),
+                    cursor.getLong(SearchQuery.PUBLISHED_TIME),
+                    cursor.getString(SearchQuery.AUTHOR),
+                    cursor.getString(SearchQuery.THUMB_URL),
+                    cursor.getFloat(SearchQuery.ASPECT_RATIO),
+                    cursor.getString(SearchQuery.SNIPPET),
+            });
+        }
+        return rows;
+    }
+
+    /**
+     * The cache key of {@code text}: its words, lower case, separated by single spaces.
+     */
+    private static String normalize(String text) {
+        final StringBuilder query = new StringBuilder();
+        for (String word : SearchIndex.tokenize(text)) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(word);
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.example.xyzreader.data.ItemsProvider.Tables;
+
+/**
+ * The {@code authors} table. Every distinct author name is stored once and items refer to it
+ * by {@link ItemsContract.Items#AUTHOR_ID}. Writers keep handing {@link ItemsContract.Items#AUTHOR}
+ * to {@link ItemsProvider} as text, it is interned here, and readers get the name back through
+ * {@link #NAME_EXPRESSION}.
+ */
+class AuthorTable {
+    /** Backs {@link ItemsContract.Authors#buildItemsUri}, newest first. */
+    static final String INDEX_AUTHOR_ID = "items_author_id";
+
+    /**
+     * The author name of an {@code items} row, a primary key lookup per row.
+     */
+    static final String NAME_EXPRESSION = "(SELECT " + ItemsContract.Authors.NAME
+            + " FROM " + Tables.AUTHORS
+            + " WHERE " + Tables.AUTHORS + "." + ItemsContract.Authors._ID
+            + "=" + Tables.ITEMS + "." + ItemsContract.Items.AUTHOR_ID + ")";
+
+    private AuthorTable() {
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        // The unique constraint doubles as the name lookup and sort index
+        db.execSQL("CREATE TABLE " + Tables.AUTHORS + " ("
+                + ItemsContract.Authors._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + ItemsContract.Authors.NAME + " TEXT NOT NULL UNIQUE"
+                + ")");
+    }
+
+    static void createIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_AUTHOR_ID + " ON " + Tables.ITEMS + " ("
+                + ItemsContract.Items.AUTHOR_ID + ", "
+                + ItemsContract.Items.PUBLISHED_TIME + ")");
+    }
+
+    /**
+     * Delete authors no item refers to any more. Probes {@link #INDEX_AUTHOR_ID} once per
+     * author.
+     */
+    static void deleteOrphans(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + Tables.AUTHORS + " WHERE NOT EXISTS (SELECT 1 FROM "
+                + Tables.ITEMS + " WHERE " + Tables.ITEMS + "." + ItemsContract.Items.AUTHOR_ID
+                + "=" + Tables.AUTHORS + "." + ItemsContract.Authors._ID + ")");
+    }
+
+    /**
+     * Maps author names to ids within one write, adding the names that are new. Must be used
+     * and closed inside the transaction of that write.
+     */
+    static class Interner {
+        private final SQLiteStatement mSelect;
+        private final SQLiteStatement mInsert;
+        private final Map<String, Long> mIds = new HashMap<String, Long>();
+
+        Interner(SQLiteDatabase db) {
+            mSelect = db.compileStatement("SELECT " + ItemsContract.Authors._ID + " FROM "
+                    + Tables.AUTHORS + " WHERE " + ItemsContract.Authors.NAME + "=?");
+            mInsert = db.compileStatement("INSERT INTO " + Tables.AUTHORS + " ("
+                    + ItemsContract.Authors.NAME + ") VALUES (?)");
+        }
+
+        long intern(String name) {
+            Long id = mIds.get(name);
+            if (id == null) {
+                mSelect.bindString(1, name);
+                try {
+                    id = mSelect.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    mInsert.bindString(1, name);
+                    id = mInsert.executeInsert();
+                }
+                mIds.put(name, id);
+            }
+            return id;
+        }
+
+        /**
+         * Replace the author name in {@code values}, if any, by its id.
+         *
+         * @return a copy of {@code values}, or {@code values} if it has no author
+         */
+        ContentValues resolve(ContentValues values) {
+            if (!values.containsKey(ItemsContract.Items.AUTHOR)) {
+                return values;
+            }
+            final ContentValues copy = new ContentValues(values);
+            copy.remove(ItemsContract.Items.AUTHOR);
+            final String name = values.getAsString(ItemsContract.Items.AUTHOR);
+            if (name == null) {
+                copy.putNull(ItemsContract.Items.AUTHOR_ID);
+            } else {
+                copy.put(ItemsContract.Items.AUTHOR_ID, intern(name));
+            }
+            return copy;
+        }
+
+        void close() {
+            mSelect.close();
+            mInsert.close();
+        }
+    }
+}
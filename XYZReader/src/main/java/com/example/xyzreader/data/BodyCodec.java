@@ -0,0 +1,184 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage formats of {@link ItemsContract.Items#BODY}. The column holds one of:
+ * <ul>
+ * <li>TEXT: the plain body,</li>
+ * <li>a non-empty BLOB: the deflated UTF-8 body,</li>
+ * <li>the empty BLOB {@link #EXTERNAL}: the body lives in the {@link BodyFileStore}.</li>
+ * </ul>
+ * Rows written in different modes can coexist. {@link ItemsProvider} encodes on write and wraps
+ * its cursors in a {@link DecodingCursor}, so readers of the column always see text.
+ */
+class BodyCodec {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Column value of a body stored out of line. */
+    static final byte[] EXTERNAL = new byte[0];
+
+    /** Bodies shorter than this are not worth a deflate stream. */
+    private static final int MIN_COMPRESS_LENGTH = 512;
+
+    private BodyCodec() {
+    }
+
+    /**
+     * Replace the body in {@code values}, if any, by its compressed form.
+     *
+     * @return {@code values}, or a compressed copy of it
+     */
+    static ContentValues compress(ContentValues values) {
+        final Object body = values.get(ItemsContract.Items.BODY);
+        if (!(body instanceof String) || ((String) body).length() < MIN_COMPRESS_LENGTH) {
+            return values;
+        }
+        final byte[] compressed = deflate(((String) body).getBytes(UTF_8));
+        if (compressed == null) {
+            return values;
+        }
+        final ContentValues copy = new ContentValues(values);
+        copy.put(ItemsContract.Items.BODY, compressed);
+        return copy;
+    }
+
+    /**
+     * @return the deflated bytes, or null if they are not smaller than the input
+     */
+    private static byte[] deflate(byte[] input) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2);
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() >= input.length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Replace the body in {@code values}, if any, by the {@link #EXTERNAL} marker.
+     *
+     * @return a copy of {@code values}, or {@code values} if it has no body
+     */
+    static ContentValues externalize(ContentValues values) {
+        if (!values.containsKey(ItemsContract.Items.BODY)) {
+            return values;
+        }
+        final ContentValues copy = new ContentValues(values);
+        copy.put(ItemsContract.Items.BODY, EXTERNAL);
+        return copy;
+    }
+
+    static String inflate(byte[] compressed) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            final byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated article body");
+                }
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt article body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Presents encoded bodies as text. A body is only decoded when it is actually read, and the
+     * last one read is kept, so a caller that never asks for the body never pays for it.
+     */
+    static class DecodingCursor extends CursorWrapper {
+        private final BodyFileStore mFiles;
+        private final int mBodyColumn;
+        private final int mIdColumn;
+        private int mDecodedPosition = -1;
+        private String mDecoded;
+
+        DecodingCursor(Cursor cursor, BodyFileStore files) {
+            super(cursor);
+            mFiles = files;
+            mBodyColumn = cursor.getColumnIndex(ItemsContract.Items.BODY);
+            mIdColumn = cursor.getColumnIndex(ItemsContract.Items._ID);
+        }
+
+        /**
+         * Wrap {@code cursor} if it has a body column.
+         */
+        static Cursor wrap(Cursor cursor, BodyFileStore files) {
+            if (cursor == null || cursor.getColumnIndex(ItemsContract.Items.BODY) == -1) {
+                return cursor;
+            }
+            return new DecodingCursor(cursor, files);
+        }
+
+        private boolean isEncodedBody(int columnIndex) {
+            return columnIndex == mBodyColumn
+                    && super.getType(columnIndex) == Cursor.FIELD_TYPE_BLOB;
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            if (isEncodedBody(columnIndex)) {
+                return Cursor.FIELD_TYPE_STRING;
+            }
+            return super.getType(columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            if (!isEncodedBody(columnIndex)) {
+                return super.getString(columnIndex);
+            }
+            final int position = getPosition();
+            if (position != mDecodedPosition) {
+                mDecoded = decode(super.getBlob(columnIndex));
+                mDecodedPosition = position;
+            }
+            return mDecoded;
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            if (isEncodedBody(columnIndex)) {
+                return getString(columnIndex).getBytes(UTF_8);
+            }
+            return super.getBlob(columnIndex);
+        }
+
+        private String decode(byte[] value) {
+            if (value.length > 0) {
+                return inflate(value);
+            }
+            if (mIdColumn == -1) {
+                throw new IllegalStateException(
+                        "Reading an out-of-line body requires the _id column");
+            }
+            return mFiles.read(super.getLong(mIdColumn));
+        }
+    }
+}
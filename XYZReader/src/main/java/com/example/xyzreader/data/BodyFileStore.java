@@ -0,0 +1,99 @@
+package com.example.xyzreader.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Out-of-line storage of {@link ItemsContract.Items#BODY}: one UTF-8 file per item, named after
+ * the item's {@code _id}. Rows whose body lives here carry {@link BodyCodec#EXTERNAL} in the
+ * body column. A body is written to a temporary file and renamed over the old one, so a reader,
+ * or a reader that already has the old file open, never sees half a body, and a crash mid-write
+ * leaves the old body in place.
+ */
+class BodyFileStore {
+    private static final String TAG = "BodyFileStore";
+    private static final String DIR = "bodies";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDir;
+
+    BodyFileStore(Context context) {
+        mDir = new File(context.getFilesDir(), DIR);
+    }
+
+    File getFile(long id) {
+        return new File(mDir, Long.toString(id));
+    }
+
+    void write(long id, String body) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + mDir);
+        }
+        final File temp = new File(mDir, id + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(body.getBytes(UTF_8));
+            // The data must be on disk before the rename is, or a crash could leave an empty file
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(getFile(id))) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            temp.delete();
+            throw new IllegalStateException("Cannot write body of item " + id, e);
+        }
+    }
+
+    /**
+     * @return the body, or an empty string if there is no file for {@code id}
+     */
+    String read(long id) {
+        final File file = getFile(id);
+        if (!file.exists()) {
+            Log.w(TAG, "Missing body file for item " + id);
+            return "";
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read body of item " + id, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    void delete(long id) {
+        getFile(id).delete();
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.xyzreader.data;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cursor loader that keeps a snapshot of the rows it loaded and, on a change notification for
+ * specific items, re-reads only those rows and patches them into the snapshot instead of running
+ * the whole query again. See {@link ItemsContract.Items#getChangedIds} for the notifications it
+ * understands; anything else, inserts, and changes to the sort columns fall back to a full
+ * query.
+ * <p>
+ * Every delivered cursor is a fresh in-memory copy of the snapshot, so callers may close it.
+ */
+public class DeltaCursorLoader extends AsyncTaskLoader<Cursor> {
+    private static final String TAG = "DeltaCursorLoader";
+
+    /** Above this many changed rows a full query is cheaper than patching. */
+    private static final int MAX_DELTA_ROWS = 100;
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final ContentObserver mObserver;
+
+    /** Item the URI is limited to, or -1 for a directory URI. */
+    private final long mItemId;
+
+    /** Guards the pending changes, which are posted from the main thread. */
+    private final Object mLock = new Object();
+    private final Set<Long> mPendingIds = new HashSet<Long>();
+    private boolean mFullReloadPending;
+
+    // Only touched from loadInBackground, which never runs concurrently with itself
+    private String[] mColumns;
+    private int mIdColumn = -1;
+    private int[] mSortColumns;
+    private List<Object[]> mRows;
+    private Map<Long, Integer> mPositions;
+
+    private Cursor mCursor;
+    private boolean mObserverRegistered;
+
+    public DeltaCursorLoader(Context context, Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        final List<String> segments = uri.getPathSegments();
+        mItemId = segments.size() == 2 && TextUtils.isDigitsOnly(segments.get(1))
+                ? ItemsContract.Items.getItemId(uri) : -1;
+        mObserver = new ContentObserver(new Handler()) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                if (onItemsChanged(ItemsContract.Items.getChangedIds(uri))) {
+                    onContentChanged();
+                }
+            }
+        };
+    }
+
+    /**
+     * Record a change notification.
+     *
+     * @param ids the changed item IDs, or null if the change is not limited to known items
+     * @return whether this loader is affected and has to reload
+     */
+    private boolean onItemsChanged(long[] ids) {
+        synchronized (mLock) {
+            if (ids == null) {
+                mFullReloadPending = true;
+                return true;
+            }
+            boolean affected = false;
+            for (long id : ids) {
+                // An item loader is woken by change sets on the directory as well
+                if (mItemId == -1 || mItemId == id) {
+                    mPendingIds.add(id);
+                    affected = true;
+                }
+            }
+            return affected;
+        }
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final Set<Long> changedIds;
+        final boolean full;
+        synchronized (mLock) {
+            changedIds = new HashSet<Long>(mPendingIds);
+            full = mFullReloadPending || mRows == null || mIdColumn == -1
+                    || changedIds.size() > MAX_DELTA_ROWS;
+            mPendingIds.clear();
+            mFullReloadPending = false;
+        }
+
+        if (full) {
+            loadAll();
+        } else if (!changedIds.isEmpty() && !applyDelta(changedIds)) {
+            loadAll();
+        }
+        return buildCursor();
+    }
+
+    private void loadAll() {
+        Cursor cursor = getContext().getContentResolver().query(mUri, mProjection, mSelection,
+                mSelectionArgs, mSortOrder);
+        if (cursor == null) {
+            mRows = new ArrayList<Object[]>();
+            mPositions = new HashMap<Long, Integer>();
+            return;
+        }
+        try {
+            if (mColumns == null) {
+                initColumns(cursor.getColumnNames());
+            }
+            final List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                rows.add(readRow(cursor));
+            }
+            mRows = rows;
+            indexRows();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Re-read {@code ids} and patch them into the snapshot.
+     *
+     * @return false if the change cannot be applied as a patch and a full query is needed
+     */
+    private boolean applyDelta(Set<Long> ids) {
+        final StringBuilder selection = new StringBuilder();
+        if (!TextUtils.isEmpty(mSelection)) {
+            selection.append('(').append(mSelection).append(") AND ");
+        }
+        selection.append(ItemsContract.Items._ID).append(" IN (");
+        final List<String> args = new ArrayList<String>();
+        if (mSelectionArgs != null) {
+            args.addAll(Arrays.asList(mSelectionArgs));
+        }
+        boolean first = true;
+        for (long id : ids) {
+            selection.append(first ? "?" : ",?");
+            args.add(Long.toString(id));
+            first = false;
+        }
+        selection.append(')');
+
+        final Map<Long, Object[]> changed = new HashMap<Long, Object[]>();
+        Cursor cursor = getContext().getContentResolver().query(mUri, mProjection,
+                selection.toString(), args.toArray(new String[args.size()]), null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                Object[] row = readRow(cursor);
+                changed.put(((Number) row[mIdColumn]).longValue(), row);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Validate before touching the snapshot, a bail-out must leave it intact
+        for (Map.Entry<Long, Object[]> entry : changed.entrySet()) {
+            Integer position = mPositions.get(entry.getKey());
+            if (position == null) {
+                // New row, its position depends on the sort order
+                return false;
+            }
+            Object[] old = mRows.get(position);
+            for (int column : mSortColumns) {
+                if (!equal(old[column], entry.getValue()[column])) {
+                    return false;
+                }
+            }
+        }
+
+        boolean removed = false;
+        for (long id : ids) {
+            Integer position = mPositions.get(id);
+            if (position == null) {
+                continue;
+            }
+            Object[] row = changed.get(id);
+            if (row != null) {
+                mRows.set(position, row);
+            } else {
+                // Deleted, or no longer matches the selection
+                mRows.set(position, null);
+                removed = true;
+            }
+        }
+        if (removed) {
+            mRows.removeAll(Collections.singleton(null));
+            indexRows();
+        }
+        Log.d(TAG, "Patched " + ids.size() + " row(s) of " + mUri);
+        return true;
+    }
+
+    private void initColumns(String[] columns) {
+        mColumns = columns;
+        mIdColumn = Arrays.asList(columns).indexOf(ItemsContract.Items._ID);
+
+        // Columns named in the sort order; a change to one of them can move the row
+        final List<String> sortTerms = TextUtils.isEmpty(mSortOrder)
+                ? new ArrayList<String>()
+                : Arrays.asList(mSortOrder.split("[\\s,()]+"));
+        final List<Integer> sortColumns = new ArrayList<Integer>();
+        for (int i = 0; i < columns.length; i++) {
+            if (sortTerms.contains(columns[i])) {
+                sortColumns.add(i);
+            }
+        }
+        mSortColumns = new int[sortColumns.size()];
+        for (int i = 0; i < mSortColumns.length; i++) {
+            mSortColumns[i] = sortColumns.get(i);
+        }
+        if (sortTerms.size() > 0 && mSortColumns.length == 0) {
+            // Sorted on something we cannot see, every patch would be a guess
+            mIdColumn = -1;
+        }
+    }
+
+    private void indexRows() {
+        final Map<Long, Integer> positions = new HashMap<Long, Integer>(mRows.size());
+        if (mIdColumn != -1) {
+            for (int i = 0; i < mRows.size(); i++) {
+                positions.put(((Number) mRows.get(i)[mIdColumn]).longValue(), i);
+            }
+        }
+        mPositions = positions;
+    }
+
+    private Object[] readRow(Cursor cursor) {
+        final Object[] row = new Object[mColumns.length];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+            }
+        }
+        return row;
+    }
+
+    private Cursor buildCursor() {
+        if (mColumns == null) {
+            return new MatrixCursor(mProjection != null ? mProjection : new String[0], 0);
+        }
+        final MatrixCursor cursor = new MatrixCursor(mColumns, mRows.size());
+        for (Object[] row : mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /* Runs on the UI thread */
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+            oldCursor.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            // Descendants are needed for the item URIs under a directory URI
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+
+/**
+ * Buffers {@link ContentProviderOperation}s for {@link ItemsProvider} and applies them in
+ * fixed-size batches, so a sync never has to hold the whole feed as pending operations.
+ * Within a batch, every {@code yieldInterval}-th operation is marked as a yield point, letting
+ * {@link ItemsProvider#applyBatch} hand the database to waiting readers between chunks.
+ * Plain inserts skip the operation machinery and go through {@link ItemsProvider#bulkInsert}.
+ */
+public class ItemsBatchWriter {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_YIELD_INTERVAL = 50;
+
+    private final ContentResolver mResolver;
+    private final int mBatchSize;
+    private final int mYieldInterval;
+    private final ArrayList<ContentProviderOperation> mPending;
+    private final ArrayList<ContentValues> mPendingInserts;
+
+    public ItemsBatchWriter(ContentResolver resolver) {
+        this(resolver, DEFAULT_BATCH_SIZE, DEFAULT_YIELD_INTERVAL);
+    }
+
+    public ItemsBatchWriter(ContentResolver resolver, int batchSize, int yieldInterval) {
+        mResolver = resolver;
+        mBatchSize = batchSize;
+        mYieldInterval = yieldInterval;
+        mPending = new ArrayList<ContentProviderOperation>(batchSize);
+        mPendingInserts = new ArrayList<ContentValues>(batchSize);
+    }
+
+    /**
+     * Queue a new row for {@code items}.
+     */
+    public void insert(ContentValues values) {
+        mPendingInserts.add(values);
+        if (mPendingInserts.size() >= mBatchSize) {
+            flushInserts();
+        }
+    }
+
+    public void add(ContentProviderOperation.Builder builder)
+            throws RemoteException, OperationApplicationException {
+        final int index = mPending.size();
+        if (index > 0 && mYieldInterval > 0 && index % mYieldInterval == 0) {
+            builder.withYieldAllowed(true);
+        }
+        mPending.add(builder.build());
+        if (mPending.size() >= mBatchSize) {
+            flushOperations();
+        }
+    }
+
+    /**
+     * Write every pending insert in a single {@link ItemsProvider#bulkInsert} call and apply
+     * every pending operation in a single {@link ItemsProvider#applyBatch} call.
+     */
+    public void flush() throws RemoteException, OperationApplicationException {
+        flushInserts();
+        flushOperations();
+    }
+
+    private void flushInserts() {
+        if (mPendingInserts.isEmpty()) {
+            return;
+        }
+        try {
+            mResolver.bulkInsert(ItemsContract.Items.buildDirUri(),
+                    mPendingInserts.toArray(new ContentValues[mPendingInserts.size()]));
+        } finally {
+            mPendingInserts.clear();
+        }
+    }
+
+    private void flushOperations() throws RemoteException, OperationApplicationException {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        try {
+            mResolver.applyBatch(ItemsContract.CONTENT_AUTHORITY, mPending);
+        } finally {
+            mPending.clear();
+        }
+    }
+}
@@ -2,10 +2,18 @@ package com.example.xyzreader.data;
 
 import android.net.Uri;
 
+import java.util.List;
+
 public class ItemsContract {
 	public static final String CONTENT_AUTHORITY = "com.example.xyzreader";
 	public static final Uri BASE_URI = Uri.parse("content://com.example.xyzreader");
 
+	/**
+	 * Provider method, see {@link android.content.ContentResolver#call}: write the database log
+	 * back after a burst of writes. Called by the sync once it is done.
+	 */
+	public static final String METHOD_CHECKPOINT = "checkpoint";
+
 	interface ItemsColumns {
 		/** Type: INTEGER PRIMARY KEY AUTOINCREMENT */
 		String _ID = "_id";
@@ -13,8 +21,13 @@ public class ItemsContract {
 		String SERVER_ID = "server_id";
 		/** Type: TEXT NOT NULL */
 		String TITLE = "title";
-		/** Type: TEXT NOT NULL */
+		/**
+		 * Type: TEXT NOT NULL. Written as text, stored once per author in the authors table and
+		 * read back from there, see {@link #AUTHOR_ID}.
+		 */
 		String AUTHOR = "author";
+		/** Type: INTEGER NOT NULL REFERENCES authors(_id), set from {@link #AUTHOR} on write */
+		String AUTHOR_ID = "author_id";
 		/** Type: TEXT NOT NULL */
 		String BODY = "body";
         /** Type: TEXT NOT NULL */
@@ -23,15 +36,28 @@ public class ItemsContract {
 		String PHOTO_URL = "photo_url";
 		/** Type: REAL NOT NULL DEFAULT 1.5 */
 		String ASPECT_RATIO = "aspect_ratio";
-		/** Type: INTEGER NOT NULL DEFAULT 0 */
+		/** Type: TEXT NOT NULL, ISO-8601 as received from the feed */
 		String PUBLISHED_DATE = "published_date";
+		/** Type: INTEGER NOT NULL DEFAULT 0, {@link #PUBLISHED_DATE} in epoch milliseconds */
+		String PUBLISHED_TIME = "published_time";
+		/** Type: TEXT, fingerprint of the synced content, see {@link ItemsSync#fingerprint} */
+		String CONTENT_HASH = "content_hash";
 	}
 
 	public static class Items implements ItemsColumns {
 		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.com.example.xyzreader.items";
 		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.com.example.xyzreader.items";
 
-        public static final String DEFAULT_SORT = PUBLISHED_DATE + " DESC";
+        /** Type of {@link #buildBodyUri} streams. */
+        public static final String BODY_MIME_TYPE = "text/plain";
+
+        public static final String DEFAULT_SORT = PUBLISHED_TIME + " DESC";
+
+        /**
+         * Order of {@link #buildKeysetPageUri keyset pages}: {@link #DEFAULT_SORT}, with ties
+         * between items published at the same time broken by id.
+         */
+        public static final String KEYSET_SORT = PUBLISHED_TIME + " DESC, " + _ID + " DESC";
 
 		/** Matches: /items/ */
 		public static Uri buildDirUri() {
@@ -43,10 +69,200 @@ public class ItemsContract {
 			return BASE_URI.buildUpon().appendPath("items").appendPath(Long.toString(_id)).build();
 		}
 
+		/**
+		 * Body of a single item as a UTF-8 stream, to be opened with
+		 * {@link android.content.ContentResolver#openInputStream}.
+		 * <p>
+		 * Matches: /items/[_id]/body
+		 */
+		public static Uri buildBodyUri(long _id) {
+			return buildItemUri(_id).buildUpon().appendPath("body").build();
+		}
+
+        /**
+         * Full-text search over title, author and body. Results carry {@link #SNIPPET} and
+         * {@link #MATCH_COUNT} on top of the item columns and are ordered by match count, then
+         * newest first, unless a sort order is given.
+         * <p>
+         * Matches: /items/search?q=[query]
+         */
+        public static Uri buildSearchUri(String query) {
+            return buildDirUri().buildUpon().appendPath("search")
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, query)
+                    .build();
+        }
+
+        /**
+         * {@link #buildSearchUri} limited to the items among {@code ids}, typically the results
+         * of a query that {@code query} extends. The query still goes through the full-text
+         * index, so results and their order are those of the unrestricted query, less the items
+         * not among {@code ids}.
+         * <p>
+         * Matches: /items/search?q=[query]&amp;within=[_id],[_id],...
+         */
+        public static Uri buildSearchUri(String query, long[] ids) {
+            return buildSearchUri(query).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_WITHIN, joinIds(ids))
+                    .build();
+        }
+
+        /**
+         * At most {@code limit} rows of a directory URI, items/, authors/[_id]/items or
+         * items/search, after skipping {@code offset} rows. Skipped rows are still read, so the
+         * cost of a page grows with its offset; prefer {@link #buildKeysetPageUri} for deep pages.
+         * <p>
+         * Matches: [uri]?limit=[limit]&amp;offset=[offset]
+         */
+        public static Uri buildPageUri(Uri uri, int offset, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, Integer.toString(offset))
+                    .build();
+        }
+
+        /**
+         * At most {@code limit} rows of items/ or authors/[_id]/items that come after the row
+         * {@code (publishedTime, id)} in {@link #KEYSET_SORT} order, typically the last row of the
+         * previous page. The page is read straight from the index, however deep it is. The sort
+         * order of such a query must be null or {@link #KEYSET_SORT}. The first page is a
+         * {@link #buildPageUri} page at offset 0, sorted by {@link #KEYSET_SORT}.
+         * <p>
+         * Matches: [uri]?before_time=[publishedTime]&amp;before_id=[id]&amp;limit=[limit]
+         */
+        public static Uri buildKeysetPageUri(Uri uri, long publishedTime, long id, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_BEFORE_TIME, Long.toString(publishedTime))
+                    .appendQueryParameter(QUERY_PARAMETER_BEFORE_ID, Long.toString(id))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
         /** Read item ID item detail URI. */
         public static long getItemId(Uri itemUri) {
             return Long.parseLong(itemUri.getPathSegments().get(1));
         }
+
+        /**
+         * Change-set notification for several items at once. Delivered on the directory URI
+         * instead of one notification per {@link #buildItemUri item URI}.
+         * <p>
+         * Matches: /items/?changed=[_id],[_id],...
+         */
+        public static Uri buildChangeSetUri(long[] ids) {
+            return buildDirUri().buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGED, joinIds(ids))
+                    .build();
+        }
+
+        /**
+         * Read the IDs of the items a change notification was raised for: the single ID of an
+         * item URI or the IDs of a change-set URI. Returns null when the change is not limited to
+         * known items, e.g. a notification on the plain directory URI.
+         */
+        public static long[] getChangedIds(Uri changeUri) {
+            if (changeUri == null) {
+                return null;
+            }
+            final List<String> segments = changeUri.getPathSegments();
+            if (segments.size() == 2 && "items".equals(segments.get(0))) {
+                try {
+                    return new long[] { Long.parseLong(segments.get(1)) };
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            final String changed = changeUri.getQueryParameter(QUERY_PARAMETER_CHANGED);
+            if (segments.size() != 1 || changed == null) {
+                return null;
+            }
+            try {
+                return splitIds(changed);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Read the IDs a {@link #buildSearchUri(String, long[]) search} is limited to, or null if
+         * it is not limited.
+         *
+         * @throws NumberFormatException if the list is malformed
+         */
+        static long[] getSearchWithinIds(Uri searchUri) {
+            final String within = searchUri.getQueryParameter(QUERY_PARAMETER_WITHIN);
+            return within == null ? null : splitIds(within);
+        }
+
+        private static String joinIds(long[] ids) {
+            final StringBuilder joined = new StringBuilder();
+            for (int i = 0; i < ids.length; i++) {
+                joined.append(i == 0 ? "" : ",").append(ids[i]);
+            }
+            return joined.toString();
+        }
+
+        private static long[] splitIds(String joined) {
+            if (joined.length() == 0) {
+                return new long[0];
+            }
+            final String[] parts = joined.split(",");
+            final long[] ids = new long[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Long.parseLong(parts[i]);
+            }
+            return ids;
+        }
+
+        /** Search results only: highlighted excerpt of the match, as simple HTML. */
+        public static final String SNIPPET = "snippet";
+        /** Search results only: number of matched terms. */
+        public static final String MATCH_COUNT = "match_count";
+
+        static final String QUERY_PARAMETER_SEARCH = "q";
+        static final String QUERY_PARAMETER_LIMIT = "limit";
+        static final String QUERY_PARAMETER_OFFSET = "offset";
+        static final String QUERY_PARAMETER_BEFORE_TIME = "before_time";
+        static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+        static final String QUERY_PARAMETER_WITHIN = "within";
+        private static final String QUERY_PARAMETER_CHANGED = "changed";
+	}
+
+	interface AuthorsColumns {
+		/** Type: INTEGER PRIMARY KEY AUTOINCREMENT */
+		String _ID = "_id";
+		/** Type: TEXT NOT NULL UNIQUE */
+		String NAME = "name";
+	}
+
+	/**
+	 * Authors of the stored items. Rows are added and removed with the items that refer to them,
+	 * so these URIs are read-only.
+	 */
+	public static class Authors implements AuthorsColumns {
+		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.com.example.xyzreader.authors";
+
+		public static final String DEFAULT_SORT = NAME;
+
+		/** Matches: /authors/ */
+		public static Uri buildDirUri() {
+			return BASE_URI.buildUpon().appendPath("authors").build();
+		}
+
+		/**
+		 * Items of one author, with the {@link Items} columns, newest first unless a sort order
+		 * is given.
+		 * <p>
+		 * Matches: /authors/[_id]/items
+		 */
+		public static Uri buildItemsUri(long authorId) {
+			return buildDirUri().buildUpon().appendPath(Long.toString(authorId))
+					.appendPath("items").build();
+		}
+
+		/** Read author ID from an author items URI. */
+		public static long getAuthorId(Uri authorItemsUri) {
+			return Long.parseLong(authorItemsUri.getPathSegments().get(1));
+		}
 	}
 
 	private ItemsContract() {
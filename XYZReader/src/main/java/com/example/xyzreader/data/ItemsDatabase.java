@@ -1,37 +1,110 @@
 package com.example.xyzreader.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import static com.example.xyzreader.data.ItemsProvider.Tables;
 
+/**
+ * The items database runs in write-ahead logging mode: loaders read from their own connections
+ * and keep reading while a sync holds the write transaction, instead of waiting for it.
+ */
 public class ItemsDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "ItemsDatabase";
     private static final String DATABASE_NAME = "xyzreader.db";
-    private static final int DATABASE_VERSION = 2;
+    /** Every version above {@link ItemsMigrations#MIN_VERSION} needs a migration step. */
+    private static final int DATABASE_VERSION = 7;
+
+    /** Unique lookup of synced items. */
+    private static final String INDEX_SERVER_ID = "items_server_id";
+    /** Backs {@link ItemsContract.Items#DEFAULT_SORT}. */
+    private static final String INDEX_PUBLISHED_TIME = "items_published_time";
+
+    /**
+     * WAL pages after which a commit checkpoints on its own. Well above the platform default of
+     * 100, so a sync's stream of small commits does not stop to checkpoint every few batches;
+     * the sync checkpoints once when it is done instead, see {@link #checkpoint}.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /** Size the WAL file is truncated to after a checkpoint, so one big sync does not pin it. */
+    private static final long WAL_SIZE_LIMIT = 512 * 1024;
+
+    private final ItemsMigrations mMigrations;
 
     public ItemsDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mMigrations = new ItemsMigrations(context);
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        AuthorTable.createTable(db);
         db.execSQL("CREATE TABLE " + Tables.ITEMS + " ("
                 + ItemsContract.ItemsColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + ItemsContract.ItemsColumns.SERVER_ID + " TEXT,"
                 + ItemsContract.ItemsColumns.TITLE + " TEXT NOT NULL,"
-                + ItemsContract.ItemsColumns.AUTHOR + " TEXT NOT NULL,"
+                + ItemsContract.ItemsColumns.AUTHOR_ID + " INTEGER NOT NULL REFERENCES "
+                + Tables.AUTHORS + "(" + ItemsContract.AuthorsColumns._ID + "),"
                 + ItemsContract.ItemsColumns.BODY + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.THUMB_URL + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.PHOTO_URL + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.ASPECT_RATIO + " REAL NOT NULL DEFAULT 1.5,"
-                + ItemsContract.ItemsColumns.PUBLISHED_DATE + " TEXT NOT NULL"
+                + ItemsContract.ItemsColumns.PUBLISHED_DATE + " TEXT NOT NULL,"
+                + ItemsContract.ItemsColumns.PUBLISHED_TIME + " INTEGER NOT NULL DEFAULT 0,"
+                + ItemsContract.ItemsColumns.CONTENT_HASH + " TEXT"
                 + ")" );
+        createIndexes(db);
+        SearchIndex.createTable(db);
+    }
+
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_SERVER_ID + " ON " + Tables.ITEMS + " ("
+                + ItemsContract.ItemsColumns.SERVER_ID + ")");
+        db.execSQL("CREATE INDEX " + INDEX_PUBLISHED_TIME + " ON " + Tables.ITEMS + " ("
+                + ItemsContract.ItemsColumns.PUBLISHED_TIME + ")");
+        AuthorTable.createIndex(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Both are per connection; writes and checkpoints only ever run on this one
+        DatabaseUtils.longForQuery(db,
+                "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES, null);
+        DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + WAL_SIZE_LIMIT, null);
+    }
+
+    /**
+     * Copy the WAL back into the database without waiting for readers, so it does not keep
+     * growing across syncs. Pages still needed by a running reader are left for the next one.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        final Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (cursor.moveToFirst()) {
+                // busy, frames in the log, frames checkpointed
+                Log.d(TAG, "Checkpoint: " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                        + " WAL frames written back");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + Tables.ITEMS);
-        onCreate(db);
+        if (!mMigrations.migrate(db, oldVersion, newVersion)) {
+            // Too old to migrate, start over with an empty cache
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.ITEMS);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.ITEMS_FTS);
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.AUTHORS);
+            onCreate(db);
+        }
     }
 }
@@ -0,0 +1,260 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The steps that evolve the items schema in place, one per database version, so an app update
+ * keeps the cached articles instead of dropping them and syncing from scratch.
+ * <p>
+ * A step must only ever describe the change to its own version. Steps spell out their DDL
+ * rather than call the helpers {@link ItemsDatabase#onCreate} uses, so a later schema change
+ * cannot alter what an old step does. Derived data is backfilled in batches of rows, so a step
+ * never holds the whole table in a cursor window.
+ * <p>
+ * To change the schema, bump {@link ItemsDatabase}'s version, update
+ * {@link ItemsDatabase#onCreate} and append a step here.
+ */
+class ItemsMigrations {
+    private static final String TAG = "ItemsMigrations";
+
+    /** Oldest version that can be migrated. Older databases are recreated. */
+    static final int MIN_VERSION = 2;
+
+    /** Rows read per batch when backfilling. */
+    private static final int BACKFILL_BATCH_SIZE = 200;
+
+    /**
+     * Migration from {@code version - 1} to {@code version}.
+     */
+    abstract static class Step {
+        final int version;
+        final String description;
+
+        Step(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        abstract void apply(SQLiteDatabase db);
+    }
+
+    interface RowVisitor {
+        void visit(Cursor row);
+    }
+
+    private final BodyFileStore mBodyFiles;
+    private final List<Step> mSteps = new ArrayList<Step>();
+
+    ItemsMigrations(Context context) {
+        mBodyFiles = new BodyFileStore(context);
+
+        mSteps.add(new Step(3, "content hash") {
+            @Override
+            void apply(SQLiteDatabase db) {
+                // Rows start without a hash, the next sync sees them as changed and updates
+                // them in place
+                db.execSQL("ALTER TABLE items ADD COLUMN content_hash TEXT");
+            }
+        });
+        mSteps.add(new Step(4, "published time") {
+            @Override
+            void apply(SQLiteDatabase db) {
+                addPublishedTime(db);
+            }
+        });
+        mSteps.add(new Step(5, "server id and published time indexes") {
+            @Override
+            void apply(SQLiteDatabase db) {
+                addIndexes(db);
+            }
+        });
+        mSteps.add(new Step(6, "full-text index") {
+            @Override
+            void apply(SQLiteDatabase db) {
+                addSearchIndex(db);
+            }
+        });
+        mSteps.add(new Step(7, "authors table") {
+            @Override
+            void apply(SQLiteDatabase db) {
+                addAuthors(db);
+            }
+        });
+
+        for (int i = 0; i < mSteps.size(); i++) {
+            if (mSteps.get(i).version != MIN_VERSION + 1 + i) {
+                throw new IllegalStateException("Missing migration to version "
+                        + (MIN_VERSION + 1 + i));
+            }
+        }
+    }
+
+    /**
+     * Bring {@code db} from {@code oldVersion} to {@code newVersion}. Runs inside the upgrade
+     * transaction, so a failing step leaves the database at {@code oldVersion}.
+     *
+     * @return false if {@code oldVersion} predates {@link #MIN_VERSION} and nothing was done
+     */
+    boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < MIN_VERSION) {
+            return false;
+        }
+        if (newVersion > MIN_VERSION + mSteps.size()) {
+            throw new IllegalStateException("No migration to version " + newVersion);
+        }
+        for (Step step : mSteps.subList(oldVersion - MIN_VERSION, newVersion - MIN_VERSION)) {
+            final long start = SystemClock.elapsedRealtime();
+            step.apply(db);
+            Log.i(TAG, "Migrated to version " + step.version + " (" + step.description + ") in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        return true;
+    }
+
+    /**
+     * Version 4: add {@link ItemsContract.ItemsColumns#PUBLISHED_TIME} and fill it in from the
+     * stored date strings, so existing rows sort correctly without a resync.
+     */
+    private void addPublishedTime(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE items ADD COLUMN published_time INTEGER NOT NULL DEFAULT 0");
+
+        final PublishedDateParser parser = new PublishedDateParser();
+        final SQLiteStatement update = db.compileStatement(
+                "UPDATE items SET published_time=? WHERE _id=?");
+        try {
+            forEachRow(db, new String[] { "_id", "published_date" }, new RowVisitor() {
+                @Override
+                public void visit(Cursor row) {
+                    update.bindLong(1, parser.parse(row.getString(1)));
+                    update.bindLong(2, row.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            });
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * Version 5: index server ids and publish times. Older syncs could store the same server id
+     * twice, only the first copy is kept so the unique index can be built. The body files of the
+     * other copies go with them; should the upgrade roll back, only those copies lose their body.
+     */
+    private void addIndexes(SQLiteDatabase db) {
+        final String duplicates = "server_id IS NOT NULL AND _id NOT IN ("
+                + "SELECT MIN(_id) FROM items GROUP BY server_id)";
+        final List<Long> ids = new ArrayList<Long>();
+        final Cursor cursor = db.query("items", new String[] { "_id" }, duplicates, null, null,
+                null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        db.execSQL("DELETE FROM items WHERE " + duplicates);
+        for (long id : ids) {
+            mBodyFiles.delete(id);
+        }
+        db.execSQL("CREATE UNIQUE INDEX items_server_id ON items (server_id)");
+        db.execSQL("CREATE INDEX items_published_time ON items (published_time)");
+    }
+
+    /**
+     * Version 6: full-text index, filled from the stored items. Bodies may already be
+     * compressed or stored out of line, they are read through a
+     * {@link BodyCodec.DecodingCursor}.
+     */
+    private void addSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE items_fts USING fts4(title, author, body, "
+                + "prefix=\"2,3\")");
+
+        final SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO items_fts (docid,title,author,body) VALUES (?,?,?,?)");
+        try {
+            forEachRow(db, new String[] { "_id", "title", "author", "body" }, new RowVisitor() {
+                @Override
+                public void visit(Cursor row) {
+                    final ContentValues values = new ContentValues();
+                    values.put(ItemsContract.Items.TITLE, row.getString(1));
+                    values.put(ItemsContract.Items.AUTHOR, row.getString(2));
+                    values.put(ItemsContract.Items.BODY, row.getString(3));
+                    SearchIndex.insert(insert, row.getLong(0), values);
+                }
+            });
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Version 7: move author names into their own table, items refer to them by id. SQLite
+     * cannot drop a column, so items is copied into a new table with the same {@code _id}s,
+     * which keeps the full-text index and the body files valid.
+     */
+    private static void addAuthors(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE authors ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "name TEXT NOT NULL UNIQUE)");
+        db.execSQL("INSERT INTO authors (name) SELECT DISTINCT author FROM items");
+
+        final String columns = "_id,server_id,title,body,thumb_url,photo_url,aspect_ratio,"
+                + "published_date,published_time,content_hash";
+        db.execSQL("CREATE TABLE items_v7 ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "server_id TEXT,"
+                + "title TEXT NOT NULL,"
+                + "author_id INTEGER NOT NULL REFERENCES authors(_id),"
+                + "body TEXT NOT NULL,"
+                + "thumb_url TEXT NOT NULL,"
+                + "photo_url TEXT NOT NULL,"
+                + "aspect_ratio REAL NOT NULL DEFAULT 1.5,"
+                + "published_date TEXT NOT NULL,"
+                + "published_time INTEGER NOT NULL DEFAULT 0,"
+                + "content_hash TEXT)");
+        db.execSQL("INSERT INTO items_v7 (" + columns + ",author_id) SELECT " + columns
+                + ",(SELECT _id FROM authors WHERE name=items.author) FROM items");
+        // Ids of deleted items must not come back, the copy only knows the surviving ones
+        db.execSQL("UPDATE sqlite_sequence SET seq=MAX(seq,"
+                + "(SELECT seq FROM sqlite_sequence WHERE name='items')) WHERE name='items_v7'");
+        db.execSQL("DROP TABLE items");
+        db.execSQL("ALTER TABLE items_v7 RENAME TO items");
+
+        db.execSQL("CREATE UNIQUE INDEX items_server_id ON items (server_id)");
+        db.execSQL("CREATE INDEX items_published_time ON items (published_time)");
+        db.execSQL("CREATE INDEX items_author_id ON items (author_id, published_time)");
+    }
+
+    /**
+     * Visit every item in {@code _id} order, {@link #BACKFILL_BATCH_SIZE} rows per query.
+     * {@code columns} must start with {@code _id}; bodies are decoded.
+     */
+    private void forEachRow(SQLiteDatabase db, String[] columns, RowVisitor visitor) {
+        long lastId = Long.MIN_VALUE;
+        int count;
+        do {
+            final Cursor cursor = BodyCodec.DecodingCursor.wrap(db.query("items", columns,
+                    "_id>?", new String[] { Long.toString(lastId) }, null, null, "_id",
+                    Integer.toString(BACKFILL_BATCH_SIZE)), mBodyFiles);
+            try {
+                count = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    visitor.visit(cursor);
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == BACKFILL_BATCH_SIZE);
+    }
+}
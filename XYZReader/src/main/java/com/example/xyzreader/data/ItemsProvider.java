@@ -4,27 +4,103 @@ package com.example.xyzreader.data;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.xyzreader.R;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ItemsProvider extends ContentProvider {
+	private static final String TAG = "ItemsProvider";
+
 	private SQLiteOpenHelper mOpenHelper;
 
+	/** Whether bodies are written compressed, see {@link BodyCodec}. */
+	private boolean mCompressBodies;
+	/** Whether bodies are written to {@link #mBodyFiles}; takes precedence over compression. */
+	private boolean mStoreBodyFiles;
+	private BodyFileStore mBodyFiles;
+
+	/**
+	 * URIs changed by the batch running on the current thread, if any. Notifications raised
+	 * while a batch is open are collected here and delivered once the transaction is done.
+	 */
+	private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
+	/**
+	 * Set when a write inside the {@link #applyBatch} running on the current thread may have
+	 * left authors without items; they are pruned once at the end of the batch.
+	 */
+	private final ThreadLocal<Boolean> mOrphanedAuthors = new ThreadLocal<Boolean>();
+
+	/** Item notifications a batch delivers one by one before folding them into a change set. */
+	private static final int MAX_ITEM_NOTIFICATIONS = 32;
+
+	/** Notifications dropped because the same change was already pending in the batch. */
+	private static final AtomicLong sCoalescedNotifications = new AtomicLong();
+
 	interface Tables {
 		String ITEMS = "items";
+		String ITEMS_FTS = "items_fts";
+		String AUTHORS = "authors";
+
+		String ITEMS_FTS_JOIN_ITEMS = "items_fts "
+				+ "JOIN items ON items._id=items_fts.docid";
 	}
 
+	/** Milliseconds to pause after handing the database to a waiting reader. */
+	private static final long SLEEP_AFTER_YIELD_DELAY = 0;
+
+	/** Rows inserted by {@link #bulkInsert} between yield points. */
+	private static final int BULK_INSERT_YIELD_INTERVAL = 50;
+
+	/** Columns written by {@link #bulkInsert}, in statement binding order. */
+	private static final String[] BULK_INSERT_COLUMNS = {
+			ItemsContract.Items.SERVER_ID,
+			ItemsContract.Items.TITLE,
+			ItemsContract.Items.AUTHOR_ID,
+			ItemsContract.Items.BODY,
+			ItemsContract.Items.THUMB_URL,
+			ItemsContract.Items.PHOTO_URL,
+			ItemsContract.Items.ASPECT_RATIO,
+			ItemsContract.Items.PUBLISHED_DATE,
+			ItemsContract.Items.PUBLISHED_TIME,
+			ItemsContract.Items.CONTENT_HASH,
+	};
+
 	private static final int ITEMS = 0;
 	private static final int ITEMS__ID = 1;
+	private static final int ITEMS__ID_BODY = 2;
+	private static final int ITEMS_SEARCH = 3;
+	private static final int AUTHORS = 4;
+	private static final int AUTHORS__ID_ITEMS = 5;
+
+	/** Order of search results unless the caller asks for another. */
+	static final String SEARCH_SORT = SearchIndex.MATCH_COUNT_EXPRESSION + " DESC, "
+			+ Tables.ITEMS + "." + ItemsContract.Items.PUBLISHED_TIME + " DESC";
 
 	private static final UriMatcher sUriMatcher = buildUriMatcher();
 
@@ -33,12 +109,20 @@ public class ItemsProvider extends ContentProvider {
 		final String authority = ItemsContract.CONTENT_AUTHORITY;
 		matcher.addURI(authority, "items", ITEMS);
 		matcher.addURI(authority, "items/#", ITEMS__ID);
+		matcher.addURI(authority, "items/#/body", ITEMS__ID_BODY);
+		matcher.addURI(authority, "items/search", ITEMS_SEARCH);
+		matcher.addURI(authority, "authors", AUTHORS);
+		matcher.addURI(authority, "authors/#/items", AUTHORS__ID_ITEMS);
 		return matcher;
 	}
 
 	@Override
 	public boolean onCreate() {
         mOpenHelper = new ItemsDatabase(getContext());
+        mCompressBodies = getContext().getResources().getBoolean(R.bool.compress_article_bodies);
+        mStoreBodyFiles = getContext().getResources().getBoolean(
+                R.bool.store_article_bodies_in_files);
+        mBodyFiles = new BodyFileStore(getContext());
 		return true;
 	}
 
@@ -48,9 +132,15 @@ public class ItemsProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
 		switch (match) {
 			case ITEMS:
+			case ITEMS_SEARCH:
+			case AUTHORS__ID_ITEMS:
 				return ItemsContract.Items.CONTENT_TYPE;
 			case ITEMS__ID:
                 return ItemsContract.Items.CONTENT_ITEM_TYPE;
+			case ITEMS__ID_BODY:
+				return ItemsContract.Items.BODY_MIME_TYPE;
+			case AUTHORS:
+				return ItemsContract.Authors.CONTENT_TYPE;
 			default:
 				throw new UnsupportedOperationException("Unknown uri: " + uri);
 		}
@@ -58,13 +148,42 @@ public class ItemsProvider extends ContentProvider {
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		return query(uri, projection, selection, selectionArgs, sortOrder, null);
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+						String sortOrder, CancellationSignal cancellationSignal) {
 		final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
-		final SelectionBuilder builder = buildSelection(uri);
-		Cursor cursor = builder.where(selection, selectionArgs).query(db, projection, sortOrder);
+		final int match = sUriMatcher.match(uri);
+		if (match == ITEMS_SEARCH) {
+			return querySearch(db, uri, projection, selection, selectionArgs, sortOrder,
+					cancellationSignal);
+		}
+		if (sortOrder == null && match == AUTHORS) {
+			sortOrder = ItemsContract.Authors.DEFAULT_SORT;
+		} else if (sortOrder == null && match == AUTHORS__ID_ITEMS) {
+			sortOrder = ItemsContract.Items.DEFAULT_SORT;
+		}
+		final SelectionBuilder builder = buildSelection(uri, match, new SelectionBuilder());
+		if (isKeysetPage(uri)) {
+			if (sortOrder != null && !ItemsContract.Items.KEYSET_SORT.equals(sortOrder)) {
+				throw new IllegalArgumentException("Keyset pages are sorted by "
+						+ ItemsContract.Items.KEYSET_SORT + ": " + uri);
+			}
+			sortOrder = ItemsContract.Items.KEYSET_SORT;
+			whereBefore(uri, builder);
+		}
+		Cursor cursor = builder.where(selection, selectionArgs).query(db, projection, sortOrder,
+				getLimit(uri), cancellationSignal);
         if (cursor != null) {
-            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            // Authors only change through writes to items, which notify under items/
+            cursor.setNotificationUri(getContext().getContentResolver(),
+                    match == AUTHORS || match == AUTHORS__ID_ITEMS
+                            ? ItemsContract.Items.buildDirUri() : uri);
         }
-        return cursor;
+        // Encoded bodies are only decoded if the caller actually reads them
+        return BodyCodec.DecodingCursor.wrap(cursor, mBodyFiles);
 	}
 
 	@Override
@@ -73,9 +192,30 @@ public class ItemsProvider extends ContentProvider {
 		final int match = sUriMatcher.match(uri);
 		switch (match) {
 			case ITEMS: {
-				final long _id = db.insertOrThrow(Tables.ITEMS, null, values);
-                getContext().getContentResolver().notifyChange(uri, null);
-				return ItemsContract.Items.buildItemUri(_id);
+				long _id = -1;
+				try {
+					db.beginTransactionNonExclusive();
+					final AuthorTable.Interner authors = new AuthorTable.Interner(db);
+					try {
+						_id = db.insertOrThrow(Tables.ITEMS, null,
+								encodeBody(authors.resolve(values)));
+						SearchIndex.insert(db, _id, values);
+						// Before the commit, so a committed row never points at a missing file
+						storeBodyFile(_id, values);
+						db.setTransactionSuccessful();
+					} finally {
+						authors.close();
+						db.endTransaction();
+					}
+				} catch (RuntimeException e) {
+					if (_id != -1) {
+						discardBodyFile(_id, values);
+					}
+					throw e;
+				}
+				final Uri itemUri = ItemsContract.Items.buildItemUri(_id);
+                notifyChange(itemUri);
+				return itemUri;
 			}
 			default: {
 				throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -85,35 +225,552 @@ public class ItemsProvider extends ContentProvider {
 
 	@Override
 	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		checkWritable(uri);
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-		final SelectionBuilder builder = buildSelection(uri);
-        getContext().getContentResolver().notifyChange(uri, null);
-		return builder.where(selection, selectionArgs).update(db, values);
+		final SelectionBuilder builder = buildSelection(uri).where(selection, selectionArgs);
+		final long[] ids = hasBodyFile(values) || SearchIndex.isIndexed(values)
+				? queryIds(db, builder) : null;
+		final int count;
+		db.beginTransactionNonExclusive();
+		final AuthorTable.Interner authors = new AuthorTable.Interner(db);
+		try {
+			count = builder.update(db, encodeBody(authors.resolve(values)));
+			if (ids != null) {
+				SearchIndex.update(db, ids, values);
+				// Before the commit, so a committed row never points at a stale file. If the
+				// transaction rolls back the files already hold the new body, but the rows keep
+				// their old content hash, so the next sync writes them again
+				for (long id : ids) {
+					storeBodyFile(id, values);
+				}
+			}
+			if (count > 0 && values.containsKey(ItemsContract.Items.AUTHOR)) {
+				deleteOrphanedAuthors(db);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			authors.close();
+			db.endTransaction();
+		}
+        if (count > 0) {
+            notifyChange(uri);
+        }
+        return count;
 	}
 
 	@Override
 	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		checkWritable(uri);
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-		final SelectionBuilder builder = buildSelection(uri);
-        getContext().getContentResolver().notifyChange(uri, null);
-		return builder.where(selection, selectionArgs).delete(db);
+		final SelectionBuilder builder = buildSelection(uri).where(selection, selectionArgs);
+		final long[] ids = queryIds(db, builder);
+		final int count;
+		db.beginTransactionNonExclusive();
+		try {
+			count = builder.delete(db);
+			SearchIndex.delete(db, ids);
+			if (count > 0) {
+				deleteOrphanedAuthors(db);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+        for (long id : ids) {
+            mBodyFiles.delete(id);
+        }
+        if (count > 0) {
+            notifyChange(uri);
+        }
+        return count;
+	}
+
+	/**
+	 * Prune authors without items now, or at the end of the {@link #applyBatch} this write is
+	 * part of: the prune visits every author, a sync batch would otherwise repeat it per row.
+	 */
+	private void deleteOrphanedAuthors(SQLiteDatabase db) {
+		if (mOrphanedAuthors.get() != null) {
+			mOrphanedAuthors.set(Boolean.TRUE);
+		} else {
+			AuthorTable.deleteOrphans(db);
+		}
+	}
+
+	/**
+	 * Only items can be updated and deleted; authors follow the items that refer to them.
+	 */
+	private static void checkWritable(Uri uri) {
+		final int match = sUriMatcher.match(uri);
+		if (match != ITEMS && match != ITEMS__ID) {
+			throw new UnsupportedOperationException("Read-only uri: " + uri);
+		}
+	}
+
+    /**
+     * Notify observers of {@code uri}, or queue the notification if a batch is open on this
+     * thread. A URI is queued at most once per batch.
+     */
+    private void notifyChange(Uri uri) {
+        final Set<Uri> pending = mPendingNotifications.get();
+        if (pending == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        } else if (!pending.add(uri)) {
+            sCoalescedNotifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * Start collecting notifications on this thread.
+     *
+     * @return whether this call opened the batch, and so must be the one to
+     *         {@link #endNotificationBatch end} it; false when nested in another batch
+     */
+    private boolean beginNotificationBatch() {
+        if (mPendingNotifications.get() != null) {
+            return false;
+        }
+        mPendingNotifications.set(new LinkedHashSet<Uri>());
+        return true;
+    }
+
+    /**
+     * Stop collecting notifications on this thread and deliver the ones that were queued. Called
+     * after the transaction has ended, so observers re-query committed data. Chunks committed at
+     * yield points stay committed even if a later chunk fails, so the queue is delivered either
+     * way.
+     * <p>
+     * Item URIs are delivered one by one, so observers of other items are not woken. When more
+     * than {@link #MAX_ITEM_NOTIFICATIONS} items changed they are folded into a single
+     * {@link ItemsContract.Items#buildChangeSetUri change set} on the directory URI, and a change
+     * to the whole directory subsumes everything else.
+     *
+     * @param foldItems fold the changed items into one change set however few there are
+     */
+    private void endNotificationBatch(boolean foldItems) {
+        final Set<Uri> pending = mPendingNotifications.get();
+        mPendingNotifications.remove();
+
+        final Uri dirUri = ItemsContract.Items.buildDirUri();
+        final List<Uri> others = new ArrayList<Uri>();
+        final List<Long> itemIds = new ArrayList<Long>();
+        boolean dirChanged = false;
+        for (Uri uri : pending) {
+            if (dirUri.equals(uri)) {
+                dirChanged = true;
+            } else if (sUriMatcher.match(uri) == ITEMS__ID) {
+                itemIds.add(ItemsContract.Items.getItemId(uri));
+            } else {
+                others.add(uri);
+            }
+        }
+
+        final ContentResolver resolver = getContext().getContentResolver();
+        if (dirChanged) {
+            sCoalescedNotifications.addAndGet(itemIds.size());
+            resolver.notifyChange(dirUri, null);
+        } else if (itemIds.size() > (foldItems ? 0 : MAX_ITEM_NOTIFICATIONS)) {
+            sCoalescedNotifications.addAndGet(itemIds.size() - 1);
+            final long[] ids = new long[itemIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = itemIds.get(i);
+            }
+            resolver.notifyChange(ItemsContract.Items.buildChangeSetUri(ids), null);
+        } else {
+            for (long id : itemIds) {
+                resolver.notifyChange(ItemsContract.Items.buildItemUri(id), null);
+            }
+        }
+        for (Uri uri : others) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Number of change notifications suppressed so far because the same batch already queued an
+     * identical one, or folded them into a change set.
+     */
+    public static long getCoalescedNotificationCount() {
+        return sCoalescedNotifications.get();
+    }
+
+    /**
+     * Insert {@code values} into {@code items} through a single precompiled statement inside one
+     * transaction, binding columns positionally. Observers get exactly one
+     * {@link ItemsContract.Items#buildChangeSetUri change set} per call, once the whole batch is
+     * in; inside an {@link #applyBatch} the rows join that batch's notifications instead. Every row is expected to carry all of {@link #BULK_INSERT_COLUMNS}, with the author
+     * name in place of its id; missing values are bound as {@code NULL}.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != ITEMS) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean openedBatch = beginNotificationBatch();
+        // Body files written since the last commit, removed again if their rows roll back
+        final List<Long> uncommittedFiles = new ArrayList<Long>();
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                final SQLiteStatement insert = db.compileStatement(buildInsertSql(Tables.ITEMS,
+                        BULK_INSERT_COLUMNS));
+                final SQLiteStatement index = SearchIndex.compileInsert(db);
+                final AuthorTable.Interner authors = new AuthorTable.Interner(db);
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        if (i > 0 && i % BULK_INSERT_YIELD_INTERVAL == 0
+                                && db.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY)) {
+                            uncommittedFiles.clear();
+                        }
+                        bindAll(insert, BULK_INSERT_COLUMNS,
+                                encodeBody(authors.resolve(values[i])));
+                        final long _id = insert.executeInsert();
+                        SearchIndex.insert(index, _id, values[i]);
+                        if (storeBodyFile(_id, values[i])) {
+                            uncommittedFiles.add(_id);
+                        }
+                        notifyChange(ItemsContract.Items.buildItemUri(_id));
+                    }
+                } finally {
+                    insert.close();
+                    index.close();
+                    authors.close();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            for (long id : uncommittedFiles) {
+                mBodyFiles.delete(id);
+            }
+            throw e;
+        } finally {
+            if (openedBatch) {
+                endNotificationBatch(true);
+            }
+        }
+
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.d(TAG, "bulkInsert: " + values.length + " rows in " + elapsed + "ms ("
+                + (values.length * 1000L / Math.max(elapsed, 1)) + " rows/s)");
+        return values.length;
+    }
+
+    private ContentValues encodeBody(ContentValues values) {
+        if (hasBodyFile(values)) {
+            return BodyCodec.externalize(values);
+        }
+        return mCompressBodies ? BodyCodec.compress(values) : values;
+    }
+
+    /** Whether the body in {@code values} goes to {@link #mBodyFiles}. */
+    private boolean hasBodyFile(ContentValues values) {
+        return mStoreBodyFiles && values.get(ItemsContract.Items.BODY) instanceof String;
+    }
+
+    /**
+     * @return whether a file was written
+     */
+    private boolean storeBodyFile(long id, ContentValues values) {
+        if (!hasBodyFile(values)) {
+            return false;
+        }
+        mBodyFiles.write(id, values.getAsString(ItemsContract.Items.BODY));
+        return true;
+    }
+
+    /**
+     * Remove the file {@link #storeBodyFile} wrote for a row that was rolled back.
+     */
+    private void discardBodyFile(long id, ContentValues values) {
+        if (hasBodyFile(values)) {
+            mBodyFiles.delete(id);
+        }
+    }
+
+    private static long[] queryIds(SQLiteDatabase db, SelectionBuilder builder) {
+        final Cursor cursor = builder.query(db, new String[] { ItemsContract.Items._ID }, null);
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ItemsContract.METHOD_CHECKPOINT.equals(method)) {
+            ItemsDatabase.checkpoint(mOpenHelper.getWritableDatabase());
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /** Close the database; only called by tests that create their own provider. */
+    @Override
+    public void shutdown() {
+        mOpenHelper.close();
+    }
+
+    /**
+     * Open the body of {@code items/#/body} for reading. Out-of-line bodies are handed out as the
+     * file itself; bodies stored in the table are streamed through a pipe, so callers can read
+     * either incrementally.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != ITEMS__ID_BODY) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Article bodies are read-only: " + uri);
+        }
+
+        final long id = Long.parseLong(uri.getPathSegments().get(1));
+        final File file = mBodyFiles.getFile(id);
+        if (file.exists()) {
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        final Cursor cursor = query(ItemsContract.Items.buildItemUri(id),
+                new String[] { ItemsContract.Items._ID, ItemsContract.Items.BODY },
+                null, null, null);
+        final String body;
+        try {
+            if (cursor == null || !cursor.moveToFirst()) {
+                throw new FileNotFoundException("No such item: " + uri);
+            }
+            body = cursor.getString(1);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return openPipeHelper(uri, ItemsContract.Items.BODY_MIME_TYPE, null, body,
+                new PipeDataWriter<String>() {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri,
+                                                String mimeType, Bundle opts, String body) {
+                        OutputStream out = new FileOutputStream(output.getFileDescriptor());
+                        try {
+                            out.write(body.getBytes("UTF-8"));
+                        } catch (IOException e) {
+                            // The reader went away
+                            Log.w(TAG, "Failed to stream body of " + uri, e);
+                        } finally {
+                            try {
+                                out.close();
+                            } catch (IOException ignored) {
+                            }
+                        }
+                    }
+                });
+    }
+
+    private static String buildInsertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ",").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+
+    private static void bindAll(SQLiteStatement statement, String[] columns, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            final int index = i + 1;
+            final Object value = values.get(columns[i]);
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+	/**
+	 * Run a full-text search. The user's text is turned into a safe match expression by
+	 * {@link SearchIndex#buildMatchExpression}; text without any words yields no results.
+	 */
+	private Cursor querySearch(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+							   String[] selectionArgs, String sortOrder,
+							   CancellationSignal cancellationSignal) {
+		if (isKeysetPage(uri)) {
+			throw new IllegalArgumentException("Search results are ranked, use offset paging: "
+					+ uri);
+		}
+		final SelectionBuilder builder = buildSearchSelection(uri);
+		if (builder == null) {
+			return new MatrixCursor(projection != null ? projection : SEARCH_PROJECTION, 0);
+		}
+		final long start = SystemClock.elapsedRealtime();
+		final Cursor cursor = builder.where(selection, selectionArgs).query(db,
+				projection != null ? projection : SEARCH_PROJECTION,
+				sortOrder != null ? sortOrder : SEARCH_SORT, getLimit(uri), cancellationSignal);
+		if (cursor != null) {
+			// Counting forces the query to run, so the logged time is the real one. A cancel
+			// from a newer keystroke aborts it here with an OperationCanceledException
+			final int count = cursor.getCount();
+			Log.d(TAG, "search " + builder.getSelectionArgs()[0] + ": " + count + " results in "
+					+ (SystemClock.elapsedRealtime() - start) + "ms");
+			// Results change with any item, not just with a URI under items/search
+			cursor.setNotificationUri(getContext().getContentResolver(),
+					ItemsContract.Items.buildDirUri());
+		}
+		return cursor;
 	}
 
-	private SelectionBuilder buildSelection(Uri uri) {
+	/** Columns of search results when the caller does not ask for specific ones. */
+	static final String[] SEARCH_PROJECTION = {
+			ItemsContract.Items._ID,
+			ItemsContract.Items.TITLE,
+			ItemsContract.Items.AUTHOR,
+			ItemsContract.Items.PUBLISHED_TIME,
+			ItemsContract.Items.THUMB_URL,
+			ItemsContract.Items.ASPECT_RATIO,
+			ItemsContract.Items.SNIPPET,
+			ItemsContract.Items.MATCH_COUNT,
+	};
+
+	/**
+	 * @return the selection for a search URI, or null if its query has no words to match
+	 */
+	static SelectionBuilder buildSearchSelection(Uri uri) {
+		final String match = SearchIndex.buildMatchExpression(
+				uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_SEARCH));
+		if (match == null) {
+			return null;
+		}
+		final SelectionBuilder builder = new SelectionBuilder();
+		final long[] within;
+		try {
+			within = ItemsContract.Items.getSearchWithinIds(uri);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed id list: " + uri, e);
+		}
+		if (within != null) {
+			// Parsed numbers rather than the raw parameter, so nothing but ids reaches the SQL.
+			// Rows outside the list are dropped before they are joined and snippets are built
+			final StringBuilder ids = new StringBuilder();
+			for (int i = 0; i < within.length; i++) {
+				ids.append(i == 0 ? "" : ",").append(within[i]);
+			}
+			builder.where(SearchIndex.QUALIFIED_DOCID + " IN (" + ids + ")");
+		}
+		return builder
+				.table(Tables.ITEMS_FTS_JOIN_ITEMS)
+				.mapToTable(ItemsContract.Items._ID, Tables.ITEMS)
+				.mapToTable(ItemsContract.Items.TITLE, Tables.ITEMS)
+				.mapToTable(ItemsContract.Items.AUTHOR, Tables.ITEMS_FTS)
+				// The indexed copy of the body is always plain text
+				.mapToTable(ItemsContract.Items.BODY, Tables.ITEMS_FTS)
+				.map(ItemsContract.Items.SNIPPET, SearchIndex.SNIPPET_EXPRESSION)
+				.map(ItemsContract.Items.MATCH_COUNT, SearchIndex.MATCH_COUNT_EXPRESSION)
+				.where(SearchIndex.MATCH_SELECTION, match);
+	}
+
+	private static boolean isKeysetPage(Uri uri) {
+		return uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_BEFORE_ID) != null;
+	}
+
+	/**
+	 * Restrict {@code builder} to the rows after the keyset of {@code uri}. The first term
+	 * bounds the index range, the second drops the rows up to and including the keyset row
+	 * among those published at the same time.
+	 */
+	static SelectionBuilder whereBefore(Uri uri, SelectionBuilder builder) {
+		final String time = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_BEFORE_TIME);
+		final String id = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_BEFORE_ID);
+		// Articles may predate the epoch, publish times can be negative
+		checkPagingParameter(uri, time, Long.MIN_VALUE);
+		checkPagingParameter(uri, id, 0);
+		return builder.where(ItemsContract.Items.PUBLISHED_TIME + "<=? AND ("
+				+ ItemsContract.Items.PUBLISHED_TIME + "<? OR "
+				+ Tables.ITEMS + "." + ItemsContract.Items._ID + "<?)", time, time, id);
+	}
+
+	/**
+	 * @return the LIMIT clause for the paging parameters of {@code uri}, or null if it asks for
+	 *         all rows
+	 */
+	private static String getLimit(Uri uri) {
+		final String limit = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_LIMIT);
+		final String offset = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_OFFSET);
+		if (limit == null) {
+			if (offset != null) {
+				throw new IllegalArgumentException("Offset without a limit: " + uri);
+			}
+			return null;
+		}
+		checkPagingParameter(uri, limit, 0);
+		if (offset == null) {
+			return limit;
+		}
+		checkPagingParameter(uri, offset, 0);
+		return offset + "," + limit;
+	}
+
+	/**
+	 * Paging parameters end up in SQL, only plain numbers of at least {@code min} are accepted.
+	 */
+	private static void checkPagingParameter(Uri uri, String value, long min) {
+		try {
+			if (Long.parseLong(value) >= min) {
+				return;
+			}
+		} catch (NumberFormatException ignored) {
+		}
+		throw new IllegalArgumentException("Bad paging parameter " + value + ": " + uri);
+	}
+
+	static SelectionBuilder buildSelection(Uri uri) {
 		final SelectionBuilder builder = new SelectionBuilder();
 		final int match = sUriMatcher.match(uri);
 		return buildSelection(uri, match, builder);
 	}
 
-	private SelectionBuilder buildSelection(Uri uri, int match, SelectionBuilder builder) {
+	private static SelectionBuilder buildSelection(Uri uri, int match, SelectionBuilder builder) {
 		final List<String> paths = uri.getPathSegments();
 		switch (match) {
 			case ITEMS: {
-				return builder.table(Tables.ITEMS);
+				return builder.table(Tables.ITEMS)
+						.map(ItemsContract.Items.AUTHOR, AuthorTable.NAME_EXPRESSION);
 			}
 			case ITEMS__ID: {
 				final String _id = paths.get(1);
-				return builder.table(Tables.ITEMS).where(ItemsContract.Items._ID + "=?", _id);
+				return builder.table(Tables.ITEMS)
+						.map(ItemsContract.Items.AUTHOR, AuthorTable.NAME_EXPRESSION)
+						.where(ItemsContract.Items._ID + "=?", _id);
+			}
+			case AUTHORS: {
+				return builder.table(Tables.AUTHORS);
+			}
+			case AUTHORS__ID_ITEMS: {
+				final String authorId = paths.get(1);
+				return builder.table(Tables.ITEMS)
+						.map(ItemsContract.Items.AUTHOR, AuthorTable.NAME_EXPRESSION)
+						.where(ItemsContract.Items.AUTHOR_ID + "=?", authorId);
 			}
 			default: {
 				throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -125,21 +782,52 @@ public class ItemsProvider extends ContentProvider {
      * Apply the given set of {@link ContentProviderOperation}, executing inside
      * a {@link SQLiteDatabase} transaction. All changes will be rolled back if
      * any single one fails.
+     * <p>
+     * Operations marked with {@link ContentProviderOperation.Builder#withYieldAllowed} split
+     * the batch into chunks: before applying such an operation the transaction is committed and
+     * the database handed over if other threads are waiting for it, so long batches do not lock
+     * out readers. A failure only rolls back the chunk it happened in.
+     * <p>
+     * Change notifications raised by the operations are deduplicated per URI and delivered once
+     * the transaction has ended, see {@link #endNotificationBatch}. Authors the operations leave
+     * without items are pruned once, after the last operation.
      */
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransaction();
+        final boolean openedBatch = beginNotificationBatch();
+        final boolean outermost = mOrphanedAuthors.get() == null;
+        if (outermost) {
+            mOrphanedAuthors.set(Boolean.FALSE);
+        }
+        db.beginTransactionNonExclusive();
         try {
             final int numOperations = operations.size();
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
             for (int i = 0; i < numOperations; i++) {
-                results[i] = operations.get(i).apply(this, results, i);
+                final ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            if (outermost && mOrphanedAuthors.get()) {
+                AuthorTable.deleteOrphans(db);
             }
             db.setTransactionSuccessful();
             return results;
         } finally {
+            if (outermost) {
+                mOrphanedAuthors.remove();
+            }
             db.endTransaction();
+            if (openedBatch) {
+                final int pending = mPendingNotifications.get().size();
+                endNotificationBatch(false);
+                Log.d(TAG, "applyBatch: " + operations.size() + " operations, " + pending
+                        + " notifications delivered, " + sCoalescedNotifications.get()
+                        + " coalesced in total");
+            }
         }
     }
 }
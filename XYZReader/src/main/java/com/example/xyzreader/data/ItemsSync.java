@@ -0,0 +1,243 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Differential sync of the items table. Incoming items are matched against the stored rows on
+ * {@link ItemsContract.Items#SERVER_ID}; only new rows are inserted, only rows whose
+ * {@link ItemsContract.Items#CONTENT_HASH} changed are updated, and rows missing from the feed
+ * are deleted once the whole feed has been seen. Unchanged rows are never written. A row is never
+ * deleted to be inserted again, so readers see every article throughout a sync, in either its
+ * old or its new version.
+ * <p>
+ * Stored rows are looked up as the items come in, a batch at a time through the unique server
+ * id index, so a sync that only sees a few new items only reads those few rows.
+ */
+public class ItemsSync {
+    /** Incoming items looked up together; well below SQLite's limit of 999 bound arguments. */
+    private static final int LOOKUP_BATCH_SIZE = 100;
+
+    /** Columns that make up the content fingerprint, in hashing order. */
+    private static final String[] FINGERPRINT_COLUMNS = {
+            ItemsContract.Items.TITLE,
+            ItemsContract.Items.AUTHOR,
+            ItemsContract.Items.BODY,
+            ItemsContract.Items.THUMB_URL,
+            ItemsContract.Items.PHOTO_URL,
+            ItemsContract.Items.ASPECT_RATIO,
+            ItemsContract.Items.PUBLISHED_DATE,
+    };
+
+    interface ExistingQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+                ItemsContract.Items.SERVER_ID,
+                ItemsContract.Items.CONTENT_HASH,
+        };
+
+        int _ID = 0;
+        int SERVER_ID = 1;
+        int CONTENT_HASH = 2;
+    }
+
+    private static class StoredItem {
+        final long id;
+        final String hash;
+
+        StoredItem(long id, String hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Row counts of a finished sync.
+     */
+    public static class Stats {
+        public int inserted;
+        public int updated;
+        public int deleted;
+        public int unchanged;
+
+        @Override
+        public String toString() {
+            return "inserted=" + inserted + ", updated=" + updated + ", deleted=" + deleted
+                    + ", unchanged=" + unchanged;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final ItemsBatchWriter mWriter;
+    private final ArrayList<ContentValues> mPending =
+            new ArrayList<ContentValues>(LOOKUP_BATCH_SIZE);
+    private final HashSet<String> mSeen = new HashSet<String>();
+    private final Stats mStats = new Stats();
+
+    public ItemsSync(ContentResolver resolver) {
+        mResolver = resolver;
+        mWriter = new ItemsBatchWriter(resolver);
+    }
+
+    /**
+     * Start a sync. Must be called before {@link #offer}.
+     */
+    public void begin() {
+        mPending.clear();
+        mSeen.clear();
+    }
+
+    /**
+     * Queue the write, if any, needed to bring the stored copy of {@code values} up to date.
+     * {@code values} must contain {@link ItemsContract.Items#SERVER_ID}.
+     */
+    public void offer(ContentValues values) throws RemoteException, OperationApplicationException {
+        final String serverId = values.getAsString(ItemsContract.Items.SERVER_ID);
+        if (!mSeen.add(serverId)) {
+            // Duplicate entry in the feed, the first one wins
+            return;
+        }
+
+        values.put(ItemsContract.Items.CONTENT_HASH, fingerprint(values));
+        mPending.add(values);
+        if (mPending.size() >= LOOKUP_BATCH_SIZE) {
+            diffPending();
+        }
+    }
+
+    /**
+     * Look up the stored copies of the pending items and queue the writes they need.
+     */
+    private void diffPending() throws RemoteException, OperationApplicationException {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        final String[] serverIds = new String[mPending.size()];
+        final StringBuilder selection = new StringBuilder(ItemsContract.Items.SERVER_ID)
+                .append(" IN (");
+        for (int i = 0; i < serverIds.length; i++) {
+            serverIds[i] = mPending.get(i).getAsString(ItemsContract.Items.SERVER_ID);
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        final Map<String, StoredItem> stored = new HashMap<String, StoredItem>();
+        Cursor cursor = mResolver.query(ItemsContract.Items.buildDirUri(),
+                ExistingQuery.PROJECTION, selection.toString(), serverIds, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    stored.put(cursor.getString(ExistingQuery.SERVER_ID),
+                            new StoredItem(cursor.getLong(ExistingQuery._ID),
+                                    cursor.getString(ExistingQuery.CONTENT_HASH)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        for (ContentValues values : mPending) {
+            final String hash = values.getAsString(ItemsContract.Items.CONTENT_HASH);
+            final StoredItem item = stored.get(values.getAsString(ItemsContract.Items.SERVER_ID));
+            if (item == null) {
+                mWriter.insert(values);
+                mStats.inserted++;
+            } else if (!hash.equals(item.hash)) {
+                mWriter.add(ContentProviderOperation.newUpdate(
+                        ItemsContract.Items.buildItemUri(item.id)).withValues(values));
+                mStats.updated++;
+            } else {
+                mStats.unchanged++;
+            }
+        }
+        mPending.clear();
+    }
+
+    /**
+     * Flush pending writes and, if {@code pruneMissing} is set, delete every stored item that was
+     * not offered during this sync. Only prune when the complete feed has been offered, not after
+     * an incremental sync. The deletes are applied together in one batch without yield points,
+     * i.e. in a single transaction, so readers never observe a partially pruned table. Finally
+     * the database log the sync wrote is checkpointed.
+     */
+    public Stats finish(boolean pruneMissing) throws RemoteException, OperationApplicationException {
+        diffPending();
+        mWriter.flush();
+        if (pruneMissing) {
+            ArrayList<ContentProviderOperation> deletes = findMissing();
+            if (!deletes.isEmpty()) {
+                mResolver.applyBatch(ItemsContract.CONTENT_AUTHORITY, deletes);
+                mStats.deleted = deletes.size();
+            }
+        }
+        mSeen.clear();
+        mResolver.call(ItemsContract.BASE_URI, ItemsContract.METHOD_CHECKPOINT, null, null);
+        return mStats;
+    }
+
+    /**
+     * Deletes of every stored item that was not offered during this sync.
+     */
+    private ArrayList<ContentProviderOperation> findMissing() {
+        final ArrayList<ContentProviderOperation> deletes =
+                new ArrayList<ContentProviderOperation>();
+        Cursor cursor = mResolver.query(ItemsContract.Items.buildDirUri(),
+                ExistingQuery.PROJECTION, null, null, null);
+        if (cursor == null) {
+            return deletes;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                if (!mSeen.contains(cursor.getString(ExistingQuery.SERVER_ID))) {
+                    deletes.add(ContentProviderOperation.newDelete(
+                            ItemsContract.Items.buildItemUri(cursor.getLong(ExistingQuery._ID)))
+                            .build());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return deletes;
+    }
+
+    /**
+     * Hex SHA-1 over the content columns of {@code values}.
+     */
+    public static String fingerprint(ContentValues values) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String column : FINGERPRINT_COLUMNS) {
+                Object value = values.get(column);
+                if (value != null) {
+                    digest.update(value.toString().getBytes("UTF-8"));
+                }
+                digest.update((byte) 0);
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to be available on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The article list as a window of pages, for adapters that must not hold every article. Pages of
+ * {@link #PAGE_SIZE} rows in {@link ArticleLoader.ListQuery} layout are loaded on a background
+ * thread around the positions being bound, and at most {@link #MAX_RESIDENT_PAGES} are kept:
+ * the ones farthest from the last bound position are dropped first. A page that follows a
+ * resident page is fetched as a keyset page, any other one by offset, see
+ * {@link ItemsContract.Items#buildKeysetPageUri}.
+ * <p>
+ * Any change to the items reloads the ids and content hashes of all rows, a few bytes per row, and
+ * diffs them against the previous ones on the background thread. The callback then gets the
+ * inserted, removed, moved and changed rows, so the list can animate them in place instead of
+ * rebinding everything. Must be used from the main thread.
+ */
+public class PagedArticleList {
+    private static final String TAG = "PagedArticleList";
+
+    /** Rows per page. */
+    static final int PAGE_SIZE = 50;
+
+    /** Pages kept in memory, enough for a few screens of grid in both directions. */
+    static final int MAX_RESIDENT_PAGES = 8;
+
+    /** Rows before the edge of a page at which the neighbouring page is requested. */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 4;
+
+    /**
+     * Quiet period after a change before reloading. A sync notifies once per changed item and
+     * per batch, this folds them into one reload.
+     */
+    private static final long RELOAD_DELAY = 250;
+
+    /**
+     * Gets the changes of the list as {@link ListUpdateCallback} events, with the list already
+     * in its new state, and the rows loaded since.
+     */
+    public interface Callback extends ListUpdateCallback {
+        /**
+         * Rows {@code start} to {@code start + count - 1} have been loaded.
+         */
+        void onRowsLoaded(int start, int count);
+    }
+
+    /**
+     * What a reload reads of every row.
+     */
+    interface SnapshotQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+                ItemsContract.Items.CONTENT_HASH,
+        };
+
+        int _ID = 0;
+        int CONTENT_HASH = 1;
+    }
+
+    /**
+     * The ids of all rows in list order, and the hash codes of their content hashes.
+     */
+    private static class Snapshot {
+        final long[] ids;
+        final int[] hashes;
+
+        Snapshot(long[] ids, int[] hashes) {
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * @return the position of {@code id}, or -1
+         */
+        int indexOf(long id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class SnapshotDiff extends DiffUtil.Callback {
+        private final Snapshot mOld;
+        private final Snapshot mNew;
+
+        SnapshotDiff(Snapshot oldSnapshot, Snapshot newSnapshot) {
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.ids[oldItemPosition] == mNew.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.hashes[oldItemPosition] == mNew.hashes[newItemPosition];
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final ContentObserver mObserver;
+    private final Uri mUri = ItemsContract.Items.buildDirUri();
+
+    private final SparseArray<Cursor> mPages = new SparseArray<Cursor>();
+    /** Generation each resident page was loaded in. */
+    private final SparseIntArray mPageGenerations = new SparseIntArray();
+    /** Pages requested in the current generation and not delivered yet. */
+    private final SparseBooleanArray mLoading = new SparseBooleanArray();
+
+    /** Bumped when a reload is applied; pages loaded before that are dropped on arrival. */
+    private int mGeneration;
+    /** Whether a reload is running in the background. */
+    private boolean mReloading;
+    /** Whether the items changed while it was, so another one must follow. */
+    private boolean mReloadPending;
+    private Snapshot mSnapshot = new Snapshot(new long[0], new int[0]);
+    private int mLastPosition;
+    private int mLastPage;
+    private boolean mClosed;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
+    public PagedArticleList(Context context, Callback callback) {
+        mResolver = context.getContentResolver();
+        mCallback = callback;
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mHandler.removeCallbacks(mReload);
+                mHandler.postDelayed(mReload, RELOAD_DELAY);
+            }
+        };
+        mResolver.registerContentObserver(mUri, true, mObserver);
+        reload();
+    }
+
+    public int getCount() {
+        return mSnapshot.size();
+    }
+
+    /**
+     * The {@code _id} of the row at {@code position}, known whether or not its page is loaded.
+     * Unlike {@link #moveToPosition}, does not request any page.
+     */
+    public long getItemId(int position) {
+        return mSnapshot.ids[position];
+    }
+
+    /**
+     * The row at {@code position}, if its page is resident. Either way the page, and the
+     * neighbouring one when {@code position} is close to its edge, are requested.
+     *
+     * @return the page cursor moved to {@code position}, or null if the row is not loaded yet
+     */
+    public Cursor moveToPosition(int position) {
+        final int page = position / PAGE_SIZE;
+        final int offset = position % PAGE_SIZE;
+        mLastPosition = position;
+        mLastPage = page;
+        requestPage(page);
+        if (offset >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            requestPage(page + 1);
+        } else if (offset < PREFETCH_DISTANCE && page > 0) {
+            requestPage(page - 1);
+        }
+
+        final Cursor cursor = mPages.get(page);
+        if (cursor == null || !cursor.moveToPosition(offset)) {
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Stop loading and release the observer. The list cannot be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        mHandler.removeCallbacks(mReload);
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+        mPages.clear();
+        mPageGenerations.clear();
+    }
+
+    /**
+     * Read the snapshot again, diff it against the current one and load the pages around the
+     * last bound row at its new position. The old rows are shown until all of that is in, and
+     * then replaced in one go. Only one reload runs at a time; asking for another meanwhile
+     * queues a single one behind it.
+     */
+    private void reload() {
+        if (mClosed) {
+            return;
+        }
+        if (mReloading) {
+            mReloadPending = true;
+            return;
+        }
+        mReloading = true;
+        final Snapshot oldSnapshot = mSnapshot;
+        final long anchorId = mLastPosition < oldSnapshot.size()
+                ? oldSnapshot.ids[mLastPosition] : -1;
+        final int oldAnchor = mLastPosition;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                final Snapshot snapshot = querySnapshot();
+                // Myers' diff is quadratic when one side is empty, which is also when there is
+                // nothing to compare
+                final DiffUtil.DiffResult diff = oldSnapshot.size() == 0 || snapshot.size() == 0
+                        ? null : DiffUtil.calculateDiff(new SnapshotDiff(oldSnapshot, snapshot));
+
+                int anchor = anchorId != -1 ? snapshot.indexOf(anchorId) : -1;
+                if (anchor == -1) {
+                    anchor = Math.min(oldAnchor, Math.max(snapshot.size() - 1, 0));
+                }
+                final int lastPosition = anchor;
+                final int anchorPage = anchor / PAGE_SIZE;
+                final SparseArray<Cursor> pages = new SparseArray<Cursor>();
+                for (int page = Math.max(anchorPage - 1, 0);
+                     page <= anchorPage + 1 && page * PAGE_SIZE < snapshot.size(); page++) {
+                    pages.put(page, queryPage(ItemsContract.Items.buildPageUri(mUri,
+                            page * PAGE_SIZE, PAGE_SIZE)));
+                }
+                final long loaded = SystemClock.elapsedRealtime();
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mClosed) {
+                            return;
+                        }
+                        mReloading = false;
+                        final long applyStart = SystemClock.elapsedRealtime();
+                        final int generation = ++mGeneration;
+                        mSnapshot = snapshot;
+                        mLoading.clear();
+                        mPages.clear();
+                        mPageGenerations.clear();
+                        for (int i = 0; i < pages.size(); i++) {
+                            mPages.put(pages.keyAt(i), pages.valueAt(i));
+                            mPageGenerations.put(pages.keyAt(i), generation);
+                        }
+                        mLastPosition = lastPosition;
+                        mLastPage = anchorPage;
+
+                        if (diff != null) {
+                            diff.dispatchUpdatesTo(mCallback);
+                        } else if (oldSnapshot.size() > 0) {
+                            mCallback.onRemoved(0, oldSnapshot.size());
+                        } else if (snapshot.size() > 0) {
+                            mCallback.onInserted(0, snapshot.size());
+                        }
+                        Log.d(TAG, "Reloaded " + snapshot.size() + " rows, "
+                                + (loaded - start) + "ms in the background, "
+                                + (SystemClock.elapsedRealtime() - applyStart)
+                                + "ms on the main thread");
+                        if (mReloadPending) {
+                            mReloadPending = false;
+                            reload();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void requestPage(final int page) {
+        if (mClosed || page * PAGE_SIZE >= mSnapshot.size() || mLoading.get(page)
+                || mPages.get(page) != null) {
+            return;
+        }
+        mLoading.put(page, true);
+
+        // Continue from the last row of the page before, if we have it and it is current
+        final Uri uri;
+        final Cursor previous = mPageGenerations.get(page - 1, -1) == mGeneration
+                ? mPages.get(page - 1) : null;
+        if (previous != null && previous.moveToLast()) {
+            uri = ItemsContract.Items.buildKeysetPageUri(mUri,
+                    previous.getLong(ArticleLoader.ListQuery.PUBLISHED_TIME),
+                    previous.getLong(ArticleLoader.ListQuery._ID), PAGE_SIZE);
+        } else {
+            uri = ItemsContract.Items.buildPageUri(mUri, page * PAGE_SIZE, PAGE_SIZE);
+        }
+
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Cursor cursor = queryPage(uri);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mClosed || generation != mGeneration) {
+                            return;
+                        }
+                        mLoading.delete(page);
+                        mPages.put(page, cursor);
+                        mPageGenerations.put(page, generation);
+                        evictPages();
+                        mCallback.onRowsLoaded(page * PAGE_SIZE, cursor.getCount());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drop the pages farthest from the last bound one until at most
+     * {@link #MAX_RESIDENT_PAGES} are left.
+     */
+    private void evictPages() {
+        while (mPages.size() > MAX_RESIDENT_PAGES) {
+            int farthest = 0;
+            for (int i = 1; i < mPages.size(); i++) {
+                if (Math.abs(mPages.keyAt(i) - mLastPage)
+                        > Math.abs(mPages.keyAt(farthest) - mLastPage)) {
+                    farthest = i;
+                }
+            }
+            mPageGenerations.delete(mPages.keyAt(farthest));
+            mPages.removeAt(farthest);
+        }
+    }
+
+    private Snapshot querySnapshot() {
+        final Cursor cursor = mResolver.query(mUri, SnapshotQuery.PROJECTION, null, null,
+                ItemsContract.Items.KEYSET_SORT);
+        if (cursor == null) {
+            Log.w(TAG, "No cursor for " + mUri);
+            return new Snapshot(new long[0], new int[0]);
+        }
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            final int[] hashes = new int[ids.length];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(SnapshotQuery._ID);
+                // Rows without a hash compare equal to each other; the next sync sets one
+                final String hash = cursor.getString(SnapshotQuery.CONTENT_HASH);
+                hashes[i] = hash != null ? hash.hashCode() : 0;
+            }
+            return new Snapshot(ids, hashes);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read a page into memory, so no cursor window stays open for it.
+     */
+    private Cursor queryPage(Uri uri) {
+        final MatrixCursor page = new MatrixCursor(ArticleLoader.ListQuery.PROJECTION, PAGE_SIZE);
+        final Cursor cursor = mResolver.query(uri, ArticleLoader.ListQuery.PROJECTION, null, null,
+                ItemsContract.Items.KEYSET_SORT);
+        if (cursor == null) {
+            Log.w(TAG, "No cursor for " + uri);
+            return page;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                page.addRow(new Object[] {
+                        cursor.getLong(ArticleLoader.ListQuery._ID),
+                        cursor.getString(ArticleLoader.ListQuery.TITLE),
+                        cursor.getLong(ArticleLoader.ListQuery.PUBLISHED_TIME),
+                        cursor.getString(ArticleLoader.ListQuery.AUTHOR),
+                        cursor.getString(ArticleLoader.ListQuery.THUMB_URL),
+                        cursor.getFloat(ArticleLoader.ListQuery.ASPECT_RATIO),
+                });
+            }
+        } finally {
+            cursor.close();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.xyzreader.data;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Keeps the items table warm in the background. An inexact alarm wakes {@link UpdaterService}
+ * when {@link SyncPolicy} says the next sync is due; the service then checks the device
+ * constraints and either requests a sync through {@link RefreshCoordinator} or reschedules.
+ * The outcome of every sync feeds back into the policy, so failures back off exponentially.
+ * <p>
+ * A sync that finds no suitable network is deferred rather than failed. It is retried one
+ * interval later, or earlier by {@link ConnectivityReceiver}, which is only enabled while a sync
+ * is deferred. Apps targeting Android 7.0 and later do not get connectivity broadcasts through
+ * the manifest, so from there on the interval applies.
+ */
+public class PeriodicSync {
+    private static final String TAG = "PeriodicSync";
+
+    public static final String ACTION_PERIODIC_SYNC
+            = "com.example.xyzreader.intent.action.PERIODIC_SYNC";
+
+    /** Outcomes of a sync, as reported to {@link #onSyncFinished}. */
+    static final int RESULT_SUCCEEDED = 0;
+    static final int RESULT_FAILED = 1;
+    /** No suitable network; not a failure, the sync waits for one. */
+    static final int RESULT_OFFLINE = 2;
+    /** Superseded by a newer sync, which reports its own outcome. */
+    static final int RESULT_CANCELLED = 3;
+
+    private static final long SYNC_INTERVAL = 3 * DateUtils.HOUR_IN_MILLIS;
+    private static final long INITIAL_BACKOFF = DateUtils.MINUTE_IN_MILLIS;
+    private static final long MAX_BACKOFF = SYNC_INTERVAL;
+
+    private static final SyncPolicy.Constraints CONSTRAINTS =
+            new SyncPolicy.Constraints(true /* unmetered */, false /* charging */, false /* idle */);
+
+    private static final String PREFS_NAME = "periodic_sync";
+    private static final String PREF_FAILURE_COUNT = "failure_count";
+    private static final String PREF_NEXT_RUN_TIME = "next_run_time";
+    private static final String PREF_DEFERRED = "deferred";
+
+    private PeriodicSync() {
+    }
+
+    /**
+     * (Re)arm the alarm for the next due sync.
+     */
+    public static void schedule(Context context) {
+        SyncPolicy policy = loadPolicy(context);
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        am.set(AlarmManager.RTC, policy.getNextRunTime(), buildAlarmIntent(context));
+    }
+
+    /**
+     * Called by {@link UpdaterService} when the alarm fires.
+     */
+    static void onAlarm(Context context) {
+        SyncPolicy policy = loadPolicy(context);
+        if (policy.shouldRunNow()) {
+            RefreshCoordinator.getInstance(context).requestRefresh(true);
+            // Rescheduled from onSyncFinished once the sync is done
+            return;
+        }
+        if (policy.isDue()) {
+            Log.d(TAG, "Sync due but constraints not met, deferring.");
+            policy.onConstraintsUnmet();
+            savePolicy(context, policy);
+        }
+        schedule(context);
+    }
+
+    /**
+     * Called by {@link UpdaterService} after every sync, periodic or not.
+     *
+     * @param result one of the {@code RESULT_} constants
+     */
+    static void onSyncFinished(Context context, int result) {
+        SyncPolicy policy = loadPolicy(context);
+        switch (result) {
+            case RESULT_SUCCEEDED:
+                policy.onSyncSucceeded();
+                break;
+            case RESULT_FAILED:
+                policy.onSyncFailed();
+                Log.d(TAG, "Sync failed " + policy.getFailureCount() + " time(s), next attempt at "
+                        + policy.getNextRunTime());
+                break;
+            case RESULT_OFFLINE:
+                policy.onConstraintsUnmet();
+                break;
+            case RESULT_CANCELLED:
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown result: " + result);
+        }
+        savePolicy(context, policy);
+        schedule(context);
+    }
+
+    private static PendingIntent buildAlarmIntent(Context context) {
+        Intent intent = new Intent(context, UpdaterService.class).setAction(ACTION_PERIODIC_SYNC);
+        return PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static SyncPolicy loadPolicy(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return new SyncPolicy(SYSTEM_CLOCK, new AndroidDeviceState(context), CONSTRAINTS,
+                SYNC_INTERVAL, INITIAL_BACKOFF, MAX_BACKOFF,
+                prefs.getInt(PREF_FAILURE_COUNT, 0), prefs.getLong(PREF_NEXT_RUN_TIME, 0),
+                prefs.getBoolean(PREF_DEFERRED, false));
+    }
+
+    private static void savePolicy(Context context, SyncPolicy policy) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(PREF_FAILURE_COUNT, policy.getFailureCount())
+                .putLong(PREF_NEXT_RUN_TIME, policy.getNextRunTime())
+                .putBoolean(PREF_DEFERRED, policy.isDeferred())
+                .apply();
+        // Connectivity changes only matter while a sync waits for them
+        context.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(context, ConnectivityReceiver.class),
+                policy.isDeferred() ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+    }
+
+    private static final SyncPolicy.Clock SYSTEM_CLOCK = new SyncPolicy.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static class AndroidDeviceState implements SyncPolicy.DeviceState {
+        private final Context mContext;
+
+        AndroidDeviceState(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public boolean isConnected() {
+            ConnectivityManager cm =
+                    (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo ni = cm.getActiveNetworkInfo();
+            return ni != null && ni.isConnected();
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            ConnectivityManager cm =
+                    (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+        }
+
+        @Override
+        public boolean isCharging() {
+            Intent battery = mContext.registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean isIdle() {
+            PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && pm.isDeviceIdleMode()) {
+                return true;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+                return !pm.isInteractive();
+            }
+            return !pm.isScreenOn();
+        }
+    }
+
+    /**
+     * Runs a deferred sync once the network allows it. Enabled by {@link #savePolicy} only while
+     * a sync is deferred.
+     */
+    public static class ConnectivityReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+                SyncPolicy policy = loadPolicy(context);
+                policy.onDeviceStateChanged();
+                savePolicy(context, policy);
+                // Fires at once if the deferred sync became due
+                schedule(context);
+            }
+        }
+    }
+
+    /**
+     * Alarms do not survive a reboot, re-arm ours.
+     */
+    public static class BootReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+                schedule(context);
+            }
+        }
+    }
+}
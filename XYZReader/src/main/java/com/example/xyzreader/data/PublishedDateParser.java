@@ -0,0 +1,48 @@
+package com.example.xyzreader.data;
+
+import android.util.Log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Turns the feed's ISO-8601 {@link ItemsContract.Items#PUBLISHED_DATE} strings into the epoch
+ * milliseconds stored in {@link ItemsContract.Items#PUBLISHED_TIME}, and back. Not thread-safe,
+ * every thread that parses dates needs its own instance.
+ */
+class PublishedDateParser {
+    private static final String TAG = "PublishedDateParser";
+
+    private final SimpleDateFormat mFormat =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+
+    PublishedDateParser() {
+        // Feed timestamps carry a trailing 'Z', which the pattern does not consume
+        mFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @return epoch milliseconds, or 0 if {@code date} is missing or malformed
+     */
+    long parse(String date) {
+        if (date == null) {
+            return 0;
+        }
+        try {
+            return mFormat.parse(date).getTime();
+        } catch (ParseException e) {
+            Log.w(TAG, "Unparseable published date: " + date);
+            return 0;
+        }
+    }
+
+    /**
+     * @return {@code time} in the feed's format, in UTC
+     */
+    String format(long time) {
+        return mFormat.format(new Date(time)) + "Z";
+    }
+}
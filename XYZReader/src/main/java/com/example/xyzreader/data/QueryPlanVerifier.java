@@ -0,0 +1,150 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} for every query shape {@link ItemsProvider} serves and reports
+ * the ones that scan the items table without an index or sort through a temporary B-tree.
+ * Checked by {@code QueryPlanVerifierTest}, so a dropped index or a new unindexed query fails
+ * the instrumentation tests rather than showing up as jank.
+ */
+class QueryPlanVerifier {
+    private static final String TAG = "QueryPlanVerifier";
+
+    /** Matches both the pre-3.24 "SCAN TABLE items" and the later "SCAN items" wording. */
+    private static final Pattern TABLE_SCAN =
+            Pattern.compile("^SCAN (TABLE )?" + ItemsProvider.Tables.ITEMS + "\\b");
+    private static final String TEMP_B_TREE = "USE TEMP B-TREE";
+
+    /**
+     * One query as issued through the provider.
+     */
+    static class Shape {
+        final String name;
+        final String sql;
+        final String[] args;
+        /** Whether the query reads every row by design, so an unindexed scan is expected. */
+        final boolean readsAll;
+        /** Whether the query orders by a computed value, so no index can back the sort. */
+        final boolean sortsComputed;
+
+        Shape(String name, SelectionBuilder builder, String[] projection, String sortOrder,
+              boolean readsAll) {
+            this(name, builder, projection, sortOrder, readsAll, false);
+        }
+
+        Shape(String name, SelectionBuilder builder, String[] projection, String sortOrder,
+              boolean readsAll, boolean sortsComputed) {
+            this.name = name;
+            this.sql = builder.buildQuery(projection, sortOrder);
+            this.args = builder.getSelectionArgs();
+            this.readsAll = readsAll;
+            this.sortsComputed = sortsComputed;
+        }
+    }
+
+    private QueryPlanVerifier() {
+    }
+
+    /**
+     * The queries issued by the loaders and the sync. Keep in line with their callers.
+     */
+    static List<Shape> getShapes() {
+        final Uri dirUri = ItemsContract.Items.buildDirUri();
+        final List<Shape> shapes = new ArrayList<Shape>();
+        // ArticleLoader.newAllArticlesInstance
+        shapes.add(new Shape("article list", ItemsProvider.buildSelection(dirUri),
+                ArticleLoader.ListQuery.PROJECTION, ItemsContract.Items.DEFAULT_SORT, false));
+        // ArticleLoader.newAllArticleIdsInstance
+        shapes.add(new Shape("article ids", ItemsProvider.buildSelection(dirUri),
+                ArticleLoader.IdQuery.PROJECTION, ItemsContract.Items.DEFAULT_SORT, false));
+        // ArticleLoader.newInstanceForItemId
+        shapes.add(new Shape("article detail",
+                ItemsProvider.buildSelection(ItemsContract.Items.buildItemUri(1)),
+                ArticleLoader.Query.PROJECTION, ItemsContract.Items.DEFAULT_SORT, false));
+        // PagedArticleList: the snapshot of every row, and offset pages
+        shapes.add(new Shape("article snapshot", ItemsProvider.buildSelection(dirUri),
+                PagedArticleList.SnapshotQuery.PROJECTION, ItemsContract.Items.KEYSET_SORT, true));
+        shapes.add(new Shape("article page", ItemsProvider.buildSelection(dirUri),
+                ArticleLoader.ListQuery.PROJECTION, ItemsContract.Items.KEYSET_SORT, false));
+        // Keyset pages of items/ and authors/#/items
+        final Uri keysetPage = ItemsContract.Items.buildKeysetPageUri(dirUri, 1, 1, 20);
+        shapes.add(new Shape("article keyset page", ItemsProvider.whereBefore(keysetPage,
+                ItemsProvider.buildSelection(keysetPage)),
+                ArticleLoader.ListQuery.PROJECTION, ItemsContract.Items.KEYSET_SORT, false));
+        final Uri authorKeysetPage = ItemsContract.Items.buildKeysetPageUri(
+                ItemsContract.Authors.buildItemsUri(1), 1, 1, 20);
+        shapes.add(new Shape("author keyset page", ItemsProvider.whereBefore(authorKeysetPage,
+                ItemsProvider.buildSelection(authorKeysetPage)),
+                ArticleLoader.ListQuery.PROJECTION, ItemsContract.Items.KEYSET_SORT, false));
+        // DeltaCursorLoader patching changed rows
+        shapes.add(new Shape("changed articles", ItemsProvider.buildSelection(dirUri)
+                .where(ItemsContract.Items._ID + " IN (?,?)", "1", "2"),
+                ArticleLoader.ListQuery.PROJECTION, null, false));
+        // ItemsSync looking up a batch of synced articles
+        shapes.add(new Shape("articles by server id", ItemsProvider.buildSelection(dirUri)
+                .where(ItemsContract.Items.SERVER_ID + " IN (?,?)", "1", "2"),
+                ItemsSync.ExistingQuery.PROJECTION, null, false));
+        // ItemsSync.finish reads the whole table to prune a full sync, but must not sort it
+        shapes.add(new Shape("sync snapshot", ItemsProvider.buildSelection(dirUri),
+                ItemsSync.ExistingQuery.PROJECTION, null, true));
+        // authors/ and authors/#/items
+        shapes.add(new Shape("authors",
+                ItemsProvider.buildSelection(ItemsContract.Authors.buildDirUri()),
+                new String[] { ItemsContract.Authors._ID, ItemsContract.Authors.NAME },
+                ItemsContract.Authors.DEFAULT_SORT, false));
+        shapes.add(new Shape("articles by author",
+                ItemsProvider.buildSelection(ItemsContract.Authors.buildItemsUri(1)),
+                ArticleLoader.ListQuery.PROJECTION, ItemsContract.Items.DEFAULT_SORT, false));
+        // items/search, ranked by match count
+        shapes.add(new Shape("search", ItemsProvider.buildSearchSelection(
+                ItemsContract.Items.buildSearchUri("example")),
+                ItemsProvider.SEARCH_PROJECTION, ItemsProvider.SEARCH_SORT, false, true));
+        // ArticleSearcher narrowing the results of a shorter query
+        shapes.add(new Shape("narrowed search", ItemsProvider.buildSearchSelection(
+                ItemsContract.Items.buildSearchUri("example", new long[] { 1, 2 })),
+                ItemsProvider.SEARCH_PROJECTION, ItemsProvider.SEARCH_SORT, false, true));
+        return shapes;
+    }
+
+    /**
+     * @return one line per bad plan step, naming the shape, the step and its SQL; empty if every
+     *         shape is backed by an index
+     */
+    static List<String> findBadPlans(SQLiteDatabase db) {
+        final List<String> failures = new ArrayList<String>();
+        for (Shape shape : getShapes()) {
+            final List<String> plan = explain(db, shape);
+            Log.d(TAG, shape.name + ": " + plan);
+            for (String step : plan) {
+                if ((step.contains(TEMP_B_TREE) && !shape.sortsComputed)
+                        || (!shape.readsAll && TABLE_SCAN.matcher(step).find()
+                                && !step.contains(" USING "))) {
+                    failures.add(shape.name + ": " + step + "\n    " + shape.sql);
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static List<String> explain(SQLiteDatabase db, Shape shape) {
+        final List<String> plan = new ArrayList<String>();
+        final Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + shape.sql, shape.args);
+        try {
+            final int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.xyzreader.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Single-flight gate in front of {@link UpdaterService}. At most one sync is pending or running
+ * at any time: refresh requests that arrive while a sync is in flight join it rather than
+ * queueing another full sync behind it, and requests made while the stored data is younger than
+ * the freshness window are dropped. Every sync carries a generation number; superseding or
+ * cancelling bumps the generation, which the running sync polls between items so that it can
+ * stop mid-stream.
+ */
+public class RefreshCoordinator {
+    private static final String TAG = "RefreshCoordinator";
+
+    /** Generation of syncs that were not started through the coordinator. */
+    public static final int NO_GENERATION = -1;
+
+    public static final long DEFAULT_FRESHNESS_WINDOW = 15 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final String PREFS_NAME = "refresh_coordinator";
+    private static final String PREF_LAST_SYNC = "last_sync";
+
+    private static RefreshCoordinator sInstance;
+
+    public static synchronized RefreshCoordinator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RefreshCoordinator(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private long mFreshnessWindow = DEFAULT_FRESHNESS_WINDOW;
+    private int mGeneration = 0;
+    private boolean mInFlight = false;
+
+    private RefreshCoordinator(Context applicationContext) {
+        mContext = applicationContext;
+        mPrefs = applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public synchronized void setFreshnessWindow(long freshnessWindow) {
+        mFreshnessWindow = freshnessWindow;
+    }
+
+    /**
+     * Request a sync. Joins the in-flight sync if there is one.
+     *
+     * @param force sync even if the data is younger than the freshness window
+     * @return whether a sync is now in flight, either joined or newly started
+     */
+    public synchronized boolean requestRefresh(boolean force) {
+        if (mInFlight) {
+            Log.d(TAG, "Joining in-flight sync " + mGeneration);
+            return true;
+        }
+        if (!force && System.currentTimeMillis() - getLastSyncTime() < mFreshnessWindow) {
+            Log.d(TAG, "Data is fresh, not syncing");
+            return false;
+        }
+        start();
+        return true;
+    }
+
+    /**
+     * Cancel the in-flight sync, if any, and start a new one.
+     */
+    public synchronized void restartRefresh() {
+        if (mInFlight) {
+            Log.d(TAG, "Superseding sync " + mGeneration);
+        }
+        start();
+    }
+
+    /**
+     * Ask the in-flight sync, if any, to stop at the next item.
+     */
+    public synchronized void cancel() {
+        if (mInFlight) {
+            mGeneration++;
+            mInFlight = false;
+        }
+    }
+
+    private void start() {
+        mGeneration++;
+        mInFlight = true;
+        mContext.startService(new Intent(mContext, UpdaterService.class)
+                .putExtra(UpdaterService.EXTRA_GENERATION, mGeneration));
+    }
+
+    /**
+     * Whether the sync with the given generation has been superseded or cancelled.
+     */
+    public synchronized boolean isCancelled(int generation) {
+        return generation != NO_GENERATION && generation != mGeneration;
+    }
+
+    /**
+     * Called by {@link UpdaterService} when the sync with the given generation has ended.
+     */
+    public synchronized void onSyncFinished(int generation, boolean success) {
+        if (success) {
+            mPrefs.edit().putLong(PREF_LAST_SYNC, System.currentTimeMillis()).apply();
+        }
+        if (generation == mGeneration) {
+            mInFlight = false;
+        }
+    }
+
+    public long getLastSyncTime() {
+        return mPrefs.getLong(PREF_LAST_SYNC, 0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.example.xyzreader.data.ItemsProvider.Tables;
+
+/**
+ * Full-text index of the searchable item columns, an FTS4 table whose {@code docid} is the
+ * item's {@code _id}. It holds its own plain-text copy of every body, since the body column of
+ * {@code items} may be compressed or stored out of line, see {@link BodyCodec}. Kept in sync by
+ * {@link ItemsProvider} in the same transaction as the item write.
+ */
+class SearchIndex {
+    /** Columns copied into the index, under the same names as in {@code items}. */
+    private static final String[] COLUMNS = {
+            ItemsContract.Items.TITLE,
+            ItemsContract.Items.AUTHOR,
+            ItemsContract.Items.BODY,
+    };
+
+    private static final String DOCID = "docid";
+
+    /** Words of context around the matches in a snippet. */
+    private static final int SNIPPET_TOKENS = 12;
+
+    /**
+     * Highlighted excerpt of the best matching column. The markup is the HTML subset
+     * {@link android.text.Html#fromHtml} understands.
+     */
+    static final String SNIPPET_EXPRESSION = "snippet(" + Tables.ITEMS_FTS
+            + ", '<b>', '</b>', '…', -1, " + SNIPPET_TOKENS + ")";
+
+    /**
+     * Number of matched terms. {@code offsets()} lists four integers per match, separated by
+     * single spaces, so counting the spaces counts the matches without a custom function.
+     */
+    static final String MATCH_COUNT_EXPRESSION = "((length(offsets(" + Tables.ITEMS_FTS + "))"
+            + " - length(replace(offsets(" + Tables.ITEMS_FTS + "), ' ', '')) + 1) / 4)";
+
+    static final String MATCH_SELECTION = Tables.ITEMS_FTS + " MATCH ?";
+
+    static final String QUALIFIED_DOCID = Tables.ITEMS_FTS + "." + DOCID;
+
+    private SearchIndex() {
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        // Prefix indexes serve the 2 and 3 letter prefixes of search-as-you-type directly
+        db.execSQL("CREATE VIRTUAL TABLE " + Tables.ITEMS_FTS + " USING fts4("
+                + ItemsContract.Items.TITLE + ", "
+                + ItemsContract.Items.AUTHOR + ", "
+                + ItemsContract.Items.BODY + ", "
+                + "prefix=\"2,3\")");
+    }
+
+    static SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement("INSERT INTO " + Tables.ITEMS_FTS + " (" + DOCID + ","
+                + ItemsContract.Items.TITLE + "," + ItemsContract.Items.AUTHOR + ","
+                + ItemsContract.Items.BODY + ") VALUES (?,?,?,?)");
+    }
+
+    /**
+     * Index a new item through a statement from {@link #compileInsert}. {@code values} must
+     * hold the plain, unencoded body.
+     */
+    static void insert(SQLiteStatement insert, long id, ContentValues values) {
+        insert.clearBindings();
+        insert.bindLong(1, id);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            bindString(insert, i + 2, values.getAsString(COLUMNS[i]));
+        }
+        insert.executeInsert();
+    }
+
+    static void insert(SQLiteDatabase db, long id, ContentValues values) {
+        final SQLiteStatement insert = compileInsert(db);
+        try {
+            insert(insert, id, values);
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Whether an update with {@code values} touches indexed columns.
+     */
+    static boolean isIndexed(ContentValues values) {
+        for (String column : COLUMNS) {
+            if (values.containsKey(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void update(SQLiteDatabase db, long[] ids, ContentValues values) {
+        final ContentValues indexed = new ContentValues();
+        for (String column : COLUMNS) {
+            if (values.containsKey(column)) {
+                indexed.put(column, values.getAsString(column));
+            }
+        }
+        if (indexed.size() == 0) {
+            return;
+        }
+        for (long id : ids) {
+            db.update(Tables.ITEMS_FTS, indexed, DOCID + "=?", new String[] { Long.toString(id) });
+        }
+    }
+
+    static void delete(SQLiteDatabase db, long[] ids) {
+        for (long id : ids) {
+            db.delete(Tables.ITEMS_FTS, DOCID + "=?", new String[] { Long.toString(id) });
+        }
+    }
+
+    /**
+     * Turn free text typed by the user into an FTS query: every word must match, the last one
+     * as a prefix since it may still be being typed. Words are quoted, so FTS operators and
+     * stray quotes in the input cannot produce a malformed query.
+     *
+     * @return the expression, or null if {@code text} contains no words
+     */
+    static String buildMatchExpression(String text) {
+        final List<String> words = tokenize(text);
+        if (words.isEmpty()) {
+            return null;
+        }
+        final StringBuilder match = new StringBuilder();
+        for (int i = 0; i < words.size(); i++) {
+            match.append(i == 0 ? "\"" : " \"").append(words.get(i))
+                    .append(i == words.size() - 1 ? "*\"" : "\"");
+        }
+        return match.toString();
+    }
+
+    /**
+     * Split free text into lower-case words the way {@link #buildMatchExpression} does.
+     */
+    static List<String> tokenize(String text) {
+        final List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : text.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 0) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -29,6 +29,8 @@ import java.util.HashMap;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.text.TextUtils;
 
 /**
@@ -157,14 +159,20 @@ public class SelectionBuilder {
     	}
     }
 
-    private void mapColumns(String[] columns) {
-    	if (mProjectionMap == null) return;
-        for (int i = 0; i < columns.length; i++) {
-            final String target = mProjectionMap.get(columns[i]);
+    /**
+     * Return a copy of {@code columns} with mapped columns replaced, leaving the caller's
+     * projection untouched.
+     */
+    private String[] mapColumns(String[] columns) {
+    	if (mProjectionMap == null) return columns;
+        final String[] mapped = columns.clone();
+        for (int i = 0; i < mapped.length; i++) {
+            final String target = mProjectionMap.get(mapped[i]);
             if (target != null) {
-                columns[i] = target;
+                mapped[i] = target;
             }
         }
+        return mapped;
     }
 
     @Override
@@ -186,11 +194,34 @@ public class SelectionBuilder {
     public Cursor query(SQLiteDatabase db, String[] columns, String groupBy,
             String having, String orderBy, String limit) {
         assertTable();
-        if (columns != null) mapColumns(columns);
+        if (columns != null) columns = mapColumns(columns);
         return db.query(mTable, columns, getSelection(), getSelectionArgs(), groupBy, having,
                 orderBy, limit);
     }
 
+    /**
+     * Execute query using the current internal state as {@code WHERE} clause, aborting with an
+     * {@link android.os.OperationCanceledException} once {@code cancellationSignal} fires.
+     */
+    public Cursor query(SQLiteDatabase db, String[] columns, String orderBy, String limit,
+            CancellationSignal cancellationSignal) {
+        assertTable();
+        if (columns != null) columns = mapColumns(columns);
+        return db.query(false, mTable, columns, getSelection(), getSelectionArgs(), null, null,
+                orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Build the SQL {@link #query} would execute, with {@code ?} placeholders for
+     * {@link #getSelectionArgs()}.
+     */
+    public String buildQuery(String[] columns, String orderBy) {
+        assertTable();
+        if (columns != null) columns = mapColumns(columns);
+        return SQLiteQueryBuilder.buildQueryString(false, mTable, columns, getSelection(), null,
+                null, orderBy, null);
+    }
+
     /**
      * Execute update using the current internal state as {@code WHERE} clause.
      */
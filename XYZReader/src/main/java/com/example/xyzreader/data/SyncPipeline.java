@@ -0,0 +1,310 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.xyzreader.remote.FeedClient;
+import com.example.xyzreader.remote.RemoteEndpointUtil;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one feed response through three concurrent stages:
+ * <ol>
+ * <li>network: reads the raw body off the socket into a bounded pipe,</li>
+ * <li>decode: inflates and pull-parses the pipe into item rows on a bounded queue,</li>
+ * <li>write: diffs and writes the rows, on the calling thread.</li>
+ * </ol>
+ * A full pipe or queue blocks the stage in front of it, so memory stays bounded while the sync
+ * takes about as long as its slowest stage. The time each stage spent working, as opposed to
+ * waiting on its neighbours, is reported in {@link Timings}.
+ * <p>
+ * Payloads already known to be unchanged never get here, see
+ * {@link FeedClient.Feed#isNotModified}.
+ */
+public class SyncPipeline {
+    private static final String TAG = "SyncPipeline";
+
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 128;
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    /** Marks the end of the decoded items on the queue. */
+    private static final ContentValues END_OF_ITEMS = new ContentValues();
+
+    /**
+     * Maps one decoded article to an item row. Runs on the decode stage.
+     */
+    public interface ItemMapper {
+        ContentValues map(JSONObject item) throws JSONException;
+    }
+
+    /**
+     * Stores one item row. Runs on the write stage.
+     */
+    public interface ItemWriter {
+        void write(ContentValues values) throws RemoteException, OperationApplicationException;
+    }
+
+    /**
+     * Milliseconds each stage spent working, excluding time blocked on the other stages.
+     */
+    public static class Timings {
+        public long network;
+        public long decode;
+        public long write;
+        public long wall;
+        public long bytes;
+
+        /**
+         * The stage that kept the others waiting.
+         */
+        public String getBottleneck() {
+            if (network >= decode && network >= write) {
+                return "network";
+            }
+            return decode >= write ? "decode" : "write";
+        }
+
+        @Override
+        public String toString() {
+            return "network=" + network + "ms, decode=" + decode + "ms, write=" + write
+                    + "ms, wall=" + wall + "ms, bytes=" + bytes + ", bottleneck=" + getBottleneck();
+        }
+    }
+
+    public static class Result {
+        /** Envelope of the response. */
+        public RemoteEndpointUtil.Page page;
+        public final Timings timings = new Timings();
+    }
+
+    private final ItemMapper mMapper;
+    private final ItemWriter mWriter;
+
+    public SyncPipeline(ItemMapper mapper, ItemWriter writer) {
+        mMapper = mapper;
+        mWriter = writer;
+    }
+
+    public Result run(final FeedClient.Feed feed)
+            throws IOException, JSONException, RemoteException, OperationApplicationException {
+        final Result result = new Result();
+        final Timings timings = result.timings;
+        final long start = SystemClock.elapsedRealtime();
+
+        final PipedInputStream pipeIn = new PipedInputStream(PIPE_BUFFER_SIZE);
+        final PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        final BlockingQueue<ContentValues> queue = new ArrayBlockingQueue<ContentValues>(
+                QUEUE_CAPACITY);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread network = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long busy = 0;
+                try {
+                    InputStream body = feed.getBody();
+                    byte[] buffer = new byte[8192];
+                    while (!stopped.get()) {
+                        long readStart = SystemClock.elapsedRealtime();
+                        int read = body.read(buffer);
+                        busy += SystemClock.elapsedRealtime() - readStart;
+                        if (read == -1) {
+                            break;
+                        }
+                        timings.bytes += read;
+                        // Blocks while the pipe is full, i.e. while the decoder is behind
+                        pipeOut.write(buffer, 0, read);
+                    }
+                } catch (Exception e) {
+                    fail(e);
+                } finally {
+                    timings.network = busy;
+                    closeQuietly(pipeOut);
+                }
+            }
+
+            private void fail(Exception e) {
+                if (!stopped.getAndSet(true)) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }, "SyncPipeline-network");
+
+        Thread decoder = new Thread(new Runnable() {
+            private long mBlocked;
+
+            @Override
+            public void run() {
+                final long decodeStart = SystemClock.elapsedRealtime();
+                final TimedInputStream timedIn = new TimedInputStream(pipeIn);
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            FeedClient.decode(timedIn, feed.getEncoding()), "UTF-8"));
+                    result.page = RemoteEndpointUtil.readPage(reader,
+                            new RemoteEndpointUtil.ItemCallback() {
+                                @Override
+                                public void onItem(JSONObject item) throws JSONException {
+                                    put(mMapper.map(item));
+                                }
+                            });
+                    put(END_OF_ITEMS);
+                } catch (Exception e) {
+                    if (!stopped.getAndSet(true)) {
+                        failure.compareAndSet(null, e);
+                    }
+                } finally {
+                    timings.decode = SystemClock.elapsedRealtime() - decodeStart
+                            - mBlocked - timedIn.getBlockedMillis();
+                    closeQuietly(pipeIn);
+                }
+            }
+
+            private void put(ContentValues values) {
+                long putStart = SystemClock.elapsedRealtime();
+                try {
+                    // Blocks while the queue is full, i.e. while the writer is behind
+                    while (!queue.offer(values, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        if (stopped.get()) {
+                            throw new StoppedException();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new StoppedException();
+                } finally {
+                    mBlocked += SystemClock.elapsedRealtime() - putStart;
+                }
+            }
+        }, "SyncPipeline-decode");
+
+        network.start();
+        decoder.start();
+
+        long busy = 0;
+        try {
+            while (!stopped.get()) {
+                ContentValues values = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (values == null) {
+                    continue;
+                }
+                if (values == END_OF_ITEMS) {
+                    break;
+                }
+                long writeStart = SystemClock.elapsedRealtime();
+                mWriter.write(values);
+                busy += SystemClock.elapsedRealtime() - writeStart;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped.set(true);
+            throw new IOException("Interrupted", e);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            stopped.set(true);
+            throw e;
+        } finally {
+            timings.write = busy;
+            if (stopped.get()) {
+                // Unblock a network stage stuck in a socket read
+                feed.close();
+            }
+            joinQuietly(network);
+            joinQuietly(decoder);
+            timings.wall = SystemClock.elapsedRealtime() - start;
+            Log.d(TAG, "Pipeline timings: " + timings);
+        }
+
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof JSONException) {
+            throw (JSONException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+        return result;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Thrown on the decode stage once another stage has stopped the pipeline.
+     */
+    private static class StoppedException extends RuntimeException {
+    }
+
+    /**
+     * Accumulates the time spent blocked in {@code read}, i.e. waiting for the network stage.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private long mBlockedMillis;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                return super.read();
+            } finally {
+                mBlockedMillis += SystemClock.elapsedRealtime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                mBlockedMillis += SystemClock.elapsedRealtime() - start;
+            }
+        }
+
+        long getBlockedMillis() {
+            return mBlockedMillis;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.xyzreader.data;
+
+/**
+ * Scheduling policy for background syncs. Decides when the next sync is due, whether the device
+ * currently satisfies the configured {@link Constraints}, and how far to back off after failed
+ * attempts. Time and device state are injected so the policy can be driven by fakes.
+ */
+public class SyncPolicy {
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public interface DeviceState {
+        boolean isConnected();
+
+        boolean isUnmetered();
+
+        boolean isCharging();
+
+        boolean isIdle();
+    }
+
+    /**
+     * Device conditions a background sync waits for.
+     */
+    public static class Constraints {
+        public final boolean requireUnmetered;
+        public final boolean requireCharging;
+        public final boolean requireIdle;
+
+        public Constraints(boolean requireUnmetered, boolean requireCharging, boolean requireIdle) {
+            this.requireUnmetered = requireUnmetered;
+            this.requireCharging = requireCharging;
+            this.requireIdle = requireIdle;
+        }
+    }
+
+    private final Clock mClock;
+    private final DeviceState mDeviceState;
+    private final Constraints mConstraints;
+    private final long mInterval;
+    private final long mInitialBackoff;
+    private final long mMaxBackoff;
+
+    private int mFailureCount;
+    private long mNextRunTime;
+    private boolean mDeferred;
+
+    /**
+     * @param interval       delay between successful syncs
+     * @param initialBackoff delay after the first failure, doubled on every further failure
+     * @param maxBackoff     upper bound for the failure delay
+     * @param failureCount   consecutive failures so far, as restored from storage
+     * @param nextRunTime    time the next sync is due, as restored from storage
+     * @param deferred       whether the due sync waits for the constraints, as restored from
+     *                       storage
+     */
+    public SyncPolicy(Clock clock, DeviceState deviceState, Constraints constraints,
+                      long interval, long initialBackoff, long maxBackoff,
+                      int failureCount, long nextRunTime, boolean deferred) {
+        mClock = clock;
+        mDeviceState = deviceState;
+        mConstraints = constraints;
+        mInterval = interval;
+        mInitialBackoff = initialBackoff;
+        mMaxBackoff = maxBackoff;
+        mFailureCount = failureCount;
+        mNextRunTime = nextRunTime;
+        mDeferred = deferred;
+    }
+
+    public boolean isDue() {
+        return mClock.currentTimeMillis() >= mNextRunTime;
+    }
+
+    public boolean constraintsMet() {
+        return mDeviceState.isConnected()
+                && (!mConstraints.requireUnmetered || mDeviceState.isUnmetered())
+                && (!mConstraints.requireCharging || mDeviceState.isCharging())
+                && (!mConstraints.requireIdle || mDeviceState.isIdle());
+    }
+
+    public boolean shouldRunNow() {
+        return isDue() && constraintsMet();
+    }
+
+    public void onSyncSucceeded() {
+        mFailureCount = 0;
+        mDeferred = false;
+        mNextRunTime = mClock.currentTimeMillis() + mInterval;
+    }
+
+    /**
+     * The sync ran and failed, e.g. on a server or parse error. A sync that could not run for
+     * lack of a suitable network is not a failure, see {@link #onConstraintsUnmet}.
+     */
+    public void onSyncFailed() {
+        mFailureCount++;
+        mDeferred = false;
+        mNextRunTime = mClock.currentTimeMillis() + getBackoff(mFailureCount);
+    }
+
+    /**
+     * The sync was due but the constraints did not hold. It is deferred without counting as a
+     * failure: it runs as soon as {@link #onDeviceStateChanged} finds the constraints met, and
+     * otherwise is checked again one interval later. Does nothing if no sync is due.
+     */
+    public void onConstraintsUnmet() {
+        if (!isDue()) {
+            return;
+        }
+        mDeferred = true;
+        mNextRunTime = mClock.currentTimeMillis() + mInterval;
+    }
+
+    /**
+     * The network or power state changed. A deferred sync becomes due at once if the
+     * constraints are met now.
+     */
+    public void onDeviceStateChanged() {
+        if (mDeferred && constraintsMet()) {
+            mDeferred = false;
+            mNextRunTime = Math.min(mNextRunTime, mClock.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Delay after {@code failureCount} consecutive failures: the initial backoff doubled for
+     * every failure after the first, capped at the maximum backoff.
+     */
+    long getBackoff(int failureCount) {
+        long backoff = mInitialBackoff;
+        for (int i = 1; i < failureCount && backoff < mMaxBackoff; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, mMaxBackoff);
+    }
+
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    public long getNextRunTime() {
+        return mNextRunTime;
+    }
+
+    /**
+     * Whether a sync is waiting for the constraints, so device state changes are of interest.
+     */
+    public boolean isDeferred() {
+        return mDeferred;
+    }
+}
@@ -1,24 +1,27 @@
 package com.example.xyzreader.data;
 
 import android.app.IntentService;
-import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.Uri;
 import android.os.RemoteException;
-import android.text.format.Time;
 import android.util.Log;
 
+import com.example.xyzreader.remote.Config;
+import com.example.xyzreader.remote.FeedClient;
 import com.example.xyzreader.remote.RemoteEndpointUtil;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 public class UpdaterService extends IntentService {
     private static final String TAG = "UpdaterService";
@@ -27,6 +30,22 @@ public class UpdaterService extends IntentService {
             = "com.example.xyzreader.intent.action.STATE_CHANGE";
     public static final String EXTRA_REFRESHING
             = "com.example.xyzreader.intent.extra.REFRESHING";
+    public static final String EXTRA_GENERATION
+            = "com.example.xyzreader.intent.extra.GENERATION";
+
+    private static final String PREFS_NAME = "updater_service";
+    /** Watermark of the last incremental sync, keyed by feed URL. */
+    private static final String PREF_WATERMARK = "watermark:";
+    /** Set once a feed URL turned out to ignore paging parameters, keyed by feed URL. */
+    private static final String PREF_PAGING_UNSUPPORTED = "paging_unsupported:";
+
+    /** {@link FeedClient} slot of the n-th page of an incremental sync, after the feed URL. */
+    private static final String PAGE_SLOT = "#page";
+
+    private static final String STATE_PAGED = "paged";
+    private static final String STATE_NEXT_CURSOR = "next_cursor";
+    private static final String STATE_WATERMARK = "watermark";
+    private static final String STATE_LATEST_PUBLISHED_TIME = "latest_published_time";
 
     public UpdaterService() {
         super(TAG);
@@ -34,53 +53,279 @@ public class UpdaterService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        Time time = new Time();
+        if (PeriodicSync.ACTION_PERIODIC_SYNC.equals(intent.getAction())) {
+            PeriodicSync.onAlarm(this);
+            return;
+        }
 
+        final RefreshCoordinator coordinator = RefreshCoordinator.getInstance(this);
+        final int generation = intent.getIntExtra(EXTRA_GENERATION,
+                RefreshCoordinator.NO_GENERATION);
+        if (coordinator.isCancelled(generation)) {
+            Log.d(TAG, "Sync " + generation + " was superseded before it started.");
+            return;
+        }
+
+        int result = PeriodicSync.RESULT_FAILED;
+        try {
+            result = sync(coordinator, generation);
+        } finally {
+            coordinator.onSyncFinished(generation, result == PeriodicSync.RESULT_SUCCEEDED);
+            PeriodicSync.onSyncFinished(this, result);
+        }
+    }
+
+    /**
+     * @return one of the {@code PeriodicSync.RESULT_} constants
+     */
+    private int sync(RefreshCoordinator coordinator, int generation) {
         ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
         NetworkInfo ni = cm.getActiveNetworkInfo();
         if (ni == null || !ni.isConnected()) {
             Log.w(TAG, "Not online, not refreshing.");
-            return;
+            return PeriodicSync.RESULT_OFFLINE;
         }
 
         sendStickyBroadcast(
                 new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, true));
 
-        // Don't even inspect the intent, we only do one thing, and that's fetch content.
-        ArrayList<ContentProviderOperation> cpo = new ArrayList<ContentProviderOperation>();
+        final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        final String feedKey = Config.BASE_URL.toString();
+        final ItemsSync sync = new ItemsSync(getContentResolver());
+        final ItemHandler handler = new ItemHandler(sync, coordinator, generation);
 
-        Uri dirUri = ItemsContract.Items.buildDirUri();
+        try {
+            ItemsSync.Stats stats;
+            if (prefs.getBoolean(PREF_PAGING_UNSUPPORTED + feedKey, false)) {
+                stats = syncFull(sync, handler);
+            } else {
+                stats = syncIncremental(sync, handler, prefs, feedKey);
+            }
+            if (stats != null) {
+                Log.i(TAG, "Sync finished: " + stats);
+            }
+            return PeriodicSync.RESULT_SUCCEEDED;
 
-        // Delete all items
-        cpo.add(ContentProviderOperation.newDelete(dirUri).build());
+        } catch (CancellationException e) {
+            Log.i(TAG, "Sync " + generation + " cancelled.");
+            return PeriodicSync.RESULT_CANCELLED;
+        } catch (IOException | JSONException | RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "Error updating content.", e);
+        } finally {
+            sendStickyBroadcast(
+                    new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, false));
+        }
+        return PeriodicSync.RESULT_FAILED;
+    }
 
+    /**
+     * Fetch and diff the complete feed in one request.
+     *
+     * @return the sync stats, or null if the feed was not modified and nothing was parsed
+     */
+    private ItemsSync.Stats syncFull(ItemsSync sync, ItemHandler handler)
+            throws IOException, JSONException, RemoteException, OperationApplicationException {
+        FeedClient.Feed feed = FeedClient.getInstance(this).open(Config.BASE_URL,
+                Config.BASE_URL.toString());
         try {
-            JSONArray array = RemoteEndpointUtil.fetchJsonArray();
-            if (array == null) {
-                throw new JSONException("Invalid parsed item array" );
+            if (feed.isNotModified()) {
+                Log.i(TAG, "Feed not modified, nothing to sync.");
+                feed.commit();
+                return null;
             }
+            handler.checkCancelled();
 
-            for (int i = 0; i < array.length(); i++) {
-                ContentValues values = new ContentValues();
-                JSONObject object = array.getJSONObject(i);
-                values.put(ItemsContract.Items.SERVER_ID, object.getString("id" ));
-                values.put(ItemsContract.Items.AUTHOR, object.getString("author" ));
-                values.put(ItemsContract.Items.TITLE, object.getString("title" ));
-                values.put(ItemsContract.Items.BODY, object.getString("body" ));
-                values.put(ItemsContract.Items.THUMB_URL, object.getString("thumb" ));
-                values.put(ItemsContract.Items.PHOTO_URL, object.getString("photo" ));
-                values.put(ItemsContract.Items.ASPECT_RATIO, object.getString("aspect_ratio" ));
-                values.put(ItemsContract.Items.PUBLISHED_DATE, object.getString("published_date"));
-                cpo.add(ContentProviderOperation.newInsert(dirUri).withValues(values).build());
+            sync.begin();
+            // Articles are downloaded, decoded, diffed and written concurrently, the feed is
+            // never held in memory as a whole.
+            new SyncPipeline(handler, handler).run(feed);
+            ItemsSync.Stats stats = sync.finish(true);
+            feed.commit();
+            return stats;
+        } finally {
+            feed.close();
+        }
+    }
+
+    /**
+     * Fetch only articles published since the stored watermark, one bounded page at a time. If
+     * the server answers the first page with the plain full feed, it does not support paging:
+     * that response is synced as a full sync and later syncs go straight to {@link #syncFull}.
+     * <p>
+     * Every page is revalidated like the full feed. A page that is unchanged since the last
+     * successful sync is not read again, its cursor and watermark come from what was committed
+     * with it. Pages are only committed once the whole sync has been written.
+     */
+    private ItemsSync.Stats syncIncremental(ItemsSync sync, ItemHandler handler,
+                                            SharedPreferences prefs, String feedKey)
+            throws IOException, JSONException, RemoteException, OperationApplicationException {
+        final FeedClient client = FeedClient.getInstance(this);
+        final SyncPipeline pipeline = new SyncPipeline(handler, handler);
+        final String since = prefs.getString(PREF_WATERMARK + feedKey, null);
+        final Map<FeedClient.Feed, String> pages = new LinkedHashMap<FeedClient.Feed, String>();
+        String watermark = null;
+        String cursor = null;
+        // Whether every item the server listed went through the sync, as opposed to being
+        // skipped on an unchanged page
+        boolean complete = true;
+
+        sync.begin();
+        RemoteEndpointUtil.Page page;
+        do {
+            handler.checkCancelled();
+            URL url = RemoteEndpointUtil.buildPageUrl(Config.BASE_URL, since, cursor,
+                    RemoteEndpointUtil.PAGE_SIZE);
+            String slot = feedKey + PAGE_SLOT + pages.size();
+            FeedClient.Feed feed = client.open(url, slot);
+            try {
+                page = feed.isNotModified()
+                        ? readPageState(feed.getCommittedState(), handler) : null;
+                if (page != null) {
+                    complete = false;
+                } else {
+                    if (feed.isNotModified()) {
+                        // Nothing usable was kept with the page, so it has to be read after all
+                        feed.close();
+                        client.forget(slot);
+                        feed = client.open(url, slot);
+                    }
+                    page = pipeline.run(feed).page;
+                }
+            } finally {
+                feed.close();
             }
+            pages.put(feed, pageState(page, handler));
 
-            getContentResolver().applyBatch(ItemsContract.CONTENT_AUTHORITY, cpo);
+            if (page.watermark != null) {
+                watermark = page.watermark;
+            }
+            cursor = page.nextCursor;
+        } while (page.paged && cursor != null);
 
-        } catch (JSONException | RemoteException | OperationApplicationException e) {
-            Log.e(TAG, "Error updating content.", e);
+        // Without a watermark the server listed everything, so anything missing is gone; so
+        // does a server that ignores the paging parameters
+        ItemsSync.Stats stats = sync.finish((since == null || !page.paged) && complete);
+        for (Map.Entry<FeedClient.Feed, String> synced : pages.entrySet()) {
+            synced.getKey().commit(synced.getValue());
+        }
+        if (!page.paged) {
+            Log.i(TAG, "Feed does not support paging, falling back to full syncs.");
+            prefs.edit()
+                    .putBoolean(PREF_PAGING_UNSUPPORTED + feedKey, true)
+                    .remove(PREF_WATERMARK + feedKey)
+                    .apply();
+            return stats;
         }
+        if (watermark == null && handler.getLatestPublishedTime() > 0) {
+            // The bound is inclusive, so an article published at the very same millisecond,
+            // but not yet listed when this sync ran, is still picked up by the next one
+            watermark = new PublishedDateParser().format(handler.getLatestPublishedTime());
+        }
+        if (watermark != null) {
+            prefs.edit().putString(PREF_WATERMARK + feedKey, watermark).apply();
+        }
+        return stats;
+    }
 
-        sendStickyBroadcast(
-                new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, false));
+    /**
+     * What a sync needs to know about a page without reading it again.
+     */
+    private static String pageState(RemoteEndpointUtil.Page page, ItemHandler handler)
+            throws JSONException {
+        return new JSONObject()
+                .put(STATE_PAGED, page.paged)
+                .put(STATE_NEXT_CURSOR, page.nextCursor)
+                .put(STATE_WATERMARK, page.watermark)
+                .put(STATE_LATEST_PUBLISHED_TIME, handler.getLatestPublishedTime())
+                .toString();
+    }
+
+    /**
+     * Restore the envelope of a page from its {@link #pageState}, and let {@code handler} know
+     * about the articles on it.
+     *
+     * @return the page, or null if there is no usable state
+     */
+    private static RemoteEndpointUtil.Page readPageState(String state, ItemHandler handler) {
+        if (state == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(state);
+            RemoteEndpointUtil.Page page = new RemoteEndpointUtil.Page();
+            page.paged = json.getBoolean(STATE_PAGED);
+            page.nextCursor = json.optString(STATE_NEXT_CURSOR, null);
+            page.watermark = json.optString(STATE_WATERMARK, null);
+            handler.notePublishedTime(json.getLong(STATE_LATEST_PUBLISHED_TIME));
+            return page;
+        } catch (JSONException e) {
+            Log.w(TAG, "Unreadable page state: " + state, e);
+            return null;
+        }
+    }
+
+    /**
+     * Maps decoded feed articles to item rows on the decode stage, and hands them to
+     * {@link ItemsSync} on the write stage.
+     */
+    private static class ItemHandler implements SyncPipeline.ItemMapper, SyncPipeline.ItemWriter {
+        private final ItemsSync mSync;
+        private final RefreshCoordinator mCoordinator;
+        private final int mGeneration;
+        // Only used on the decode stage
+        private final PublishedDateParser mDateParser = new PublishedDateParser();
+        private long mLatestPublishedTime;
+
+        ItemHandler(ItemsSync sync, RefreshCoordinator coordinator, int generation) {
+            mSync = sync;
+            mCoordinator = coordinator;
+            mGeneration = generation;
+        }
+
+        void checkCancelled() {
+            if (mCoordinator.isCancelled(mGeneration)) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Latest {@link ItemsContract.Items#PUBLISHED_TIME} seen so far, or 0 if none.
+         */
+        long getLatestPublishedTime() {
+            return mLatestPublishedTime;
+        }
+
+        void notePublishedTime(long publishedTime) {
+            if (publishedTime > mLatestPublishedTime) {
+                mLatestPublishedTime = publishedTime;
+            }
+        }
+
+        @Override
+        public ContentValues map(JSONObject object) throws JSONException {
+            ContentValues values = new ContentValues();
+            values.put(ItemsContract.Items.SERVER_ID, object.getString("id" ));
+            values.put(ItemsContract.Items.AUTHOR, object.getString("author" ));
+            values.put(ItemsContract.Items.TITLE, object.getString("title" ));
+            values.put(ItemsContract.Items.BODY, object.getString("body" ));
+            values.put(ItemsContract.Items.THUMB_URL, object.getString("thumb" ));
+            values.put(ItemsContract.Items.PHOTO_URL, object.getString("photo" ));
+            values.put(ItemsContract.Items.ASPECT_RATIO, object.getString("aspect_ratio" ));
+            values.put(ItemsContract.Items.PUBLISHED_DATE, object.getString("published_date"));
+
+            // Parsed once here, so neither sorting nor binding has to deal with the string
+            long publishedTime = mDateParser.parse(
+                    values.getAsString(ItemsContract.Items.PUBLISHED_DATE));
+            values.put(ItemsContract.Items.PUBLISHED_TIME, publishedTime);
+            notePublishedTime(publishedTime);
+            return values;
+        }
+
+        @Override
+        public void write(ContentValues values)
+                throws RemoteException, OperationApplicationException {
+            checkCancelled();
+            mSync.offer(values);
+        }
     }
 }
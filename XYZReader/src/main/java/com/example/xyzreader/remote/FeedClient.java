@@ -0,0 +1,410 @@
+package com.example.xyzreader.remote;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Shared HTTP client for the article feed. Responses are kept in an on-disk HTTP cache so that
+ * repeated fetches are revalidated with {@code If-None-Match} / {@code If-Modified-Since}
+ * instead of downloaded again. On top of that, the validator and a fingerprint of the last
+ * payload that was successfully synced are kept, so an unchanged payload is recognised before
+ * anything is parsed: a {@code 304}, or a full response carrying the same {@code ETag}, from its
+ * headers alone, and a full response without an {@code ETag} by spooling its body to disk and
+ * comparing length and hash with the last payload.
+ * <p>
+ * Feeds are requested with {@code Accept-Encoding: gzip, deflate}, and URLs ending in
+ * {@code .gz} are treated as pre-compressed snapshots. The body is handed out compressed, as it
+ * came off the wire, and only inflated as a stream by {@link #decode} while the parser reads it.
+ */
+public class FeedClient {
+    private static final String TAG = "FeedClient";
+
+    private static final String CACHE_DIR = "feed-http";
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
+    private static final String SPOOL_DIR = "feed-spool";
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String PREFS_NAME = "feed_client";
+    private static final String PREF_FINGERPRINT = "fingerprint";
+    private static final String PREF_VALIDATOR = "validator";
+    private static final String PREF_URL = "url";
+    private static final String PREF_STATE = "state";
+
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    private static FeedClient sInstance;
+
+    public static synchronized FeedClient getInstance(Context context) {
+        if (sInstance == null) {
+            final Context applicationContext = context.getApplicationContext();
+            sInstance = new FeedClient(applicationContext.getCacheDir(),
+                    applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+
+        return sInstance;
+    }
+
+    private final OkHttpClient mClient;
+    private final SharedPreferences mPrefs;
+    private final File mSpoolDir;
+
+    FeedClient(File cacheDir, SharedPreferences prefs) {
+        mClient = new OkHttpClient.Builder()
+                .cache(new Cache(new File(cacheDir, CACHE_DIR), CACHE_SIZE))
+                .build();
+        mPrefs = prefs;
+        mSpoolDir = new File(cacheDir, SPOOL_DIR);
+        // Left behind by a sync that died with its feed open
+        File[] stale = mSpoolDir.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Request {@code url}, revalidating against the HTTP cache. The returned feed must be
+     * {@link Feed#close() closed}, and {@link Feed#commit() committed} once its content has been
+     * stored, so the next fetch can recognise it as unchanged.
+     *
+     * @param key slot the last committed payload is remembered under, or null to not compare
+     *            against it. A slot holds one URL at a time: a feed whose URL changes with every
+     *            sync, such as a page of newer articles, reuses its slot instead of leaving a
+     *            record behind per URL, and is only compared while its URL stays the same.
+     */
+    public Feed open(URL url, String key) throws IOException {
+        // Setting Accept-Encoding ourselves turns off OkHttp's transparent gzip, which would
+        // otherwise only ever offer gzip and hand us inflated bytes.
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Accept-Encoding", ENCODING_GZIP + ", " + ENCODING_DEFLATE)
+                .build();
+
+        Response response = mClient.newCall(request).execute();
+        boolean handedOut = false;
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response " + response);
+            }
+
+            final String encoding = encodingOf(url, response);
+            final String validator = validatorOf(response);
+            if (key == null) {
+                handedOut = true;
+                return new Feed(null, url, response.body().byteStream(), response.body(), null,
+                        encoding, validator, null);
+            }
+            final boolean committed = url.toString().equals(mPrefs.getString(PREF_URL + key, null));
+
+            final boolean notModified = response.networkResponse() == null
+                    || response.networkResponse().code() == HttpURLConnection.HTTP_NOT_MODIFIED;
+            // A full response under the ETag we last synced is that same payload, and need not be
+            // read at all. Last-Modified only has one second resolution, so it only counts when
+            // the server confirmed it with a 304.
+            if (notModified || !isEmpty(response.header("ETag"))) {
+                if (committed && validator != null
+                        && validator.equals(mPrefs.getString(PREF_VALIDATOR + key, null))) {
+                    Log.d(TAG, "Feed not modified: " + url);
+                    return new Feed(key, url, null, null, null, encoding, validator, null);
+                }
+                handedOut = true;
+                return new Feed(key, url, new FingerprintInputStream(response.body().byteStream()),
+                        response.body(), null, encoding, validator, null);
+            }
+
+            // Nothing in the headers to go by, so download the body before anything parses it
+            final Feed feed = spool(key, url, committed, response, encoding, validator);
+            handedOut = !feed.isNotModified();
+            return feed;
+        } finally {
+            if (!handedOut) {
+                response.body().close();
+            }
+        }
+    }
+
+    /**
+     * Drop the payload committed under {@code key}, so the next fetch reads it in full.
+     */
+    public void forget(String key) {
+        mPrefs.edit()
+                .remove(PREF_URL + key)
+                .remove(PREF_VALIDATOR + key)
+                .remove(PREF_FINGERPRINT + key)
+                .remove(PREF_STATE + key)
+                .apply();
+    }
+
+    /**
+     * Copy the body of {@code response} to a spool file, fingerprinting it on the way.
+     *
+     * @return a not modified feed if the body is identical to the last committed payload, or a
+     *         feed reading the spool file otherwise
+     */
+    private Feed spool(String key, URL url, boolean committed, Response response, String encoding,
+                       String validator) throws IOException {
+        if (!mSpoolDir.isDirectory() && !mSpoolDir.mkdirs()) {
+            throw new IOException("Cannot create " + mSpoolDir);
+        }
+        final File file = File.createTempFile("feed", ".tmp", mSpoolDir);
+        boolean handedOut = false;
+        try {
+            final FingerprintInputStream in =
+                    new FingerprintInputStream(response.body().byteStream());
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+
+            final String fingerprint = in.getFingerprint();
+            if (committed
+                    && fingerprint.equals(mPrefs.getString(PREF_FINGERPRINT + key, null))) {
+                Log.d(TAG, "Feed unchanged: " + url);
+                return new Feed(key, url, null, null, null, encoding, validator, fingerprint);
+            }
+            final InputStream body = new FileInputStream(file);
+            handedOut = true;
+            return new Feed(key, url, body, body, file, encoding, validator, fingerprint);
+        } finally {
+            if (!handedOut) {
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.length() == 0;
+    }
+
+    private static String validatorOf(Response response) {
+        String etag = response.header("ETag");
+        if (!isEmpty(etag)) {
+            return etag;
+        }
+        String lastModified = response.header("Last-Modified");
+        return isEmpty(lastModified) ? null : lastModified;
+    }
+
+    private static String encodingOf(URL url, Response response) {
+        String encoding = response.header("Content-Encoding");
+        if (!isEmpty(encoding)) {
+            return encoding.trim().toLowerCase(Locale.US);
+        }
+        if (url.getPath().endsWith(".gz")) {
+            return ENCODING_GZIP;
+        }
+        return ENCODING_IDENTITY;
+    }
+
+    /**
+     * Wrap {@code in} so that it inflates the given content encoding on the fly.
+     */
+    public static InputStream decode(InputStream in, String encoding) throws IOException {
+        if (ENCODING_GZIP.equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            // "deflate" should be zlib-wrapped, but some servers send a raw deflate stream.
+            // A zlib stream starts with a CMF byte for method 8 and a header checksum.
+            BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlib), BUFFER_SIZE);
+        } else if (ENCODING_IDENTITY.equals(encoding)) {
+            return in;
+        }
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    /**
+     * An open feed response: either not modified since the last commit, or a body to stream.
+     */
+    public class Feed {
+        private final String mKey;
+        private final URL mUrl;
+        private final InputStream mBody;
+        private final Closeable mResource;
+        private final File mSpoolFile;
+        private final String mEncoding;
+        private final String mValidator;
+        private final String mFingerprint;
+
+        Feed(String key, URL url, InputStream body, Closeable resource, File spoolFile,
+             String encoding, String validator, String fingerprint) {
+            mKey = key;
+            mUrl = url;
+            mBody = body;
+            mResource = resource;
+            mSpoolFile = spoolFile;
+            mEncoding = encoding;
+            mValidator = validator;
+            mFingerprint = fingerprint;
+        }
+
+        /**
+         * Whether the last committed payload is known to be current, from the response headers
+         * or from the fingerprint of the spooled body. There is no body to read in that case.
+         */
+        public boolean isNotModified() {
+            return mBody == null;
+        }
+
+        /**
+         * The raw, possibly compressed, response body; see {@link #getEncoding()}.
+         */
+        public InputStream getBody() {
+            if (mBody == null) {
+                throw new IllegalStateException("Feed is not modified, there is nothing to read");
+            }
+            return mBody;
+        }
+
+        public String getEncoding() {
+            return mEncoding;
+        }
+
+        /**
+         * The state last {@link #commit(String) committed} with this payload. Only meaningful if
+         * the feed {@link #isNotModified() is not modified}.
+         */
+        public String getCommittedState() {
+            return mKey == null ? null : mPrefs.getString(PREF_STATE + mKey, null);
+        }
+
+        /**
+         * Remember this payload as the last one that was successfully synced. The body, if any,
+         * must have been read to the end.
+         */
+        public void commit() {
+            commit(null);
+        }
+
+        /**
+         * Like {@link #commit()}, and keep {@code state} with the payload, for a caller that
+         * needs more than the body's items from a payload it is not going to read again.
+         */
+        public void commit(String state) {
+            if (mKey == null) {
+                return;
+            }
+            SharedPreferences.Editor editor = mPrefs.edit();
+            editor.putString(PREF_URL + mKey, mUrl.toString());
+            String fingerprint = mFingerprint;
+            if (fingerprint == null && mBody instanceof FingerprintInputStream) {
+                fingerprint = ((FingerprintInputStream) mBody).getFingerprint();
+            }
+            if (fingerprint != null) {
+                editor.putString(PREF_FINGERPRINT + mKey, fingerprint);
+            }
+            if (mValidator != null) {
+                editor.putString(PREF_VALIDATOR + mKey, mValidator);
+            } else {
+                editor.remove(PREF_VALIDATOR + mKey);
+            }
+            if (state != null) {
+                editor.putString(PREF_STATE + mKey, state);
+            } else {
+                editor.remove(PREF_STATE + mKey);
+            }
+            editor.apply();
+        }
+
+        public void close() {
+            if (mResource != null) {
+                try {
+                    mResource.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (mSpoolFile != null) {
+                mSpoolFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Hashes and counts the bytes read through it.
+     */
+    private static class FingerprintInputStream extends DigestInputStream {
+        private long mLength;
+
+        FingerprintInputStream(InputStream in) {
+            super(in, newDigest());
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mLength++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mLength += read;
+            }
+            return read;
+        }
+
+        /**
+         * Length and hex SHA-1 of everything read. Only call once, after the end of the stream.
+         */
+        String getFingerprint() {
+            byte[] hash = getMessageDigest().digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2 + 20);
+            sb.append(mLength).append(':');
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+    }
+}
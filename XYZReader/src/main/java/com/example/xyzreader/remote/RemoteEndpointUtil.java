@@ -1,56 +1,148 @@
 package com.example.xyzreader.remote;
 
-import android.util.Log;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONTokener;
+import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
 import java.net.URL;
 
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-
 public class RemoteEndpointUtil {
-    private static final String TAG = "RemoteEndpointUtil";
+    /**
+     * Receives articles one at a time as they are decoded from the feed.
+     */
+    public interface ItemCallback {
+        void onItem(JSONObject item) throws IOException, JSONException;
+    }
+
+    /** Maximum number of articles requested per page from a paging server. */
+    public static final int PAGE_SIZE = 200;
+
+    static final String PARAM_SINCE = "since";
+    static final String PARAM_CURSOR = "cursor";
+    static final String PARAM_LIMIT = "limit";
+
+    /**
+     * Outcome of reading one response with {@link #readPage}.
+     */
+    public static class Page {
+        /** Number of articles decoded. */
+        public int count;
+        /** Whether the server answered with a page envelope rather than the plain full feed. */
+        public boolean paged;
+        /** Cursor of the next page, or null if this was the last one. */
+        public String nextCursor;
+        /** Server-provided sync watermark, or null if the server did not send one. */
+        public String watermark;
+    }
 
     private RemoteEndpointUtil() {
     }
 
-    public static JSONArray fetchJsonArray() {
-        String itemsJson = null;
-        try {
-            itemsJson = fetchPlainText(Config.BASE_URL);
-        } catch (IOException e) {
-            Log.e(TAG, "Error fetching items JSON", e);
-            return null;
+    /**
+     * Build the URL of one page of articles published at or after {@code since}. Servers that
+     * do not page ignore the parameters and return the full feed.
+     * <p>
+     * The bound is inclusive, so articles that share the watermark's timestamp are listed again
+     * rather than lost; the differential sync recognises them as unchanged.
+     *
+     * @param since  watermark of the last sync, or null for everything
+     * @param cursor cursor returned with the previous page, or null for the first page
+     */
+    public static URL buildPageUrl(URL base, String since, String cursor, int limit)
+            throws MalformedURLException {
+        Uri.Builder builder = Uri.parse(base.toString()).buildUpon();
+        if (since != null) {
+            builder.appendQueryParameter(PARAM_SINCE, since);
         }
-
-        // Parse JSON
-        try {
-            JSONTokener tokener = new JSONTokener(itemsJson);
-            Object val = tokener.nextValue();
-            if (!(val instanceof JSONArray)) {
-                throw new JSONException("Expected JSONArray");
-            }
-            return (JSONArray) val;
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing items JSON", e);
+        if (cursor != null) {
+            builder.appendQueryParameter(PARAM_CURSOR, cursor);
         }
+        builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+        return new URL(builder.build().toString());
+    }
 
-        return null;
+    private static int readArray(JsonReader reader, ItemCallback callback)
+            throws IOException, JSONException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            callback.onItem(readItem(reader));
+            count++;
+        }
+        reader.endArray();
+        return count;
     }
 
-    static String fetchPlainText(URL url) throws IOException {
-        OkHttpClient client = new OkHttpClient();
+    /**
+     * Read either a plain JSON array of articles, or a page envelope of the form
+     * <pre>{"items": [...], "next_cursor": "...", "watermark": "..."}</pre>
+     * handing each article to {@code callback} as it is decoded.
+     */
+    public static Page readPage(Reader in, ItemCallback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        Page page = new Page();
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            page.count = readArray(reader, callback);
+            return page;
+        }
+
+        page.paged = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("items".equals(name)) {
+                page.count = readArray(reader, callback);
+            } else if ("next_cursor".equals(name)) {
+                page.nextCursor = nextStringOrNull(reader);
+            } else if ("watermark".equals(name)) {
+                page.watermark = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return page;
+    }
 
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
 
-        Response response = client.newCall(request).execute();
-        return response.body().string();
+    private static JSONObject readItem(JsonReader reader) throws IOException, JSONException {
+        JSONObject item = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            switch (token) {
+                case STRING:
+                case NUMBER:
+                    // Numbers are kept as their literal text, like JSONObject.getString() does
+                    item.put(name, reader.nextString());
+                    break;
+                case BOOLEAN:
+                    item.put(name, reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    break;
+                default:
+                    // Articles are flat, nested values are not part of the feed format
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return item;
     }
 }
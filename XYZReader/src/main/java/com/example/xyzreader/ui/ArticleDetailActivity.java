@@ -114,7 +114,7 @@ public class ArticleDetailActivity extends AppCompatActivity
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newAllArticlesInstance(this);
+        return ArticleLoader.newAllArticleIdsInstance(this);
     }
 
     @Override
@@ -127,7 +127,7 @@ public class ArticleDetailActivity extends AppCompatActivity
             mCursor.moveToFirst();
             // TODO: optimize
             while (!mCursor.isAfterLast()) {
-                if (mCursor.getLong(ArticleLoader.Query._ID) == mStartId) {
+                if (mCursor.getLong(ArticleLoader.IdQuery._ID) == mStartId) {
                     final int position = mCursor.getPosition();
                     mPager.setCurrentItem(position, false);
                     break;
@@ -161,7 +161,7 @@ public class ArticleDetailActivity extends AppCompatActivity
         @Override
         public Fragment getItem(int position) {
             mCursor.moveToPosition(position);
-            return ArticleDetailFragment.newInstance(mCursor.getLong(ArticleLoader.Query._ID));
+            return ArticleDetailFragment.newInstance(mCursor.getLong(ArticleLoader.IdQuery._ID));
         }
 
         @Override
@@ -179,7 +179,7 @@ public class ArticleDetailActivity extends AppCompatActivity
                     Log.d(TAG, "startPos: " + startPos);
                     Log.d(TAG, "currentPos: " + currentPos);
                     mCursor.moveToPosition(currentPos);
-                    long itemId = mCursor.getLong(ArticleLoader.Query._ID);
+                    long itemId = mCursor.getLong(ArticleLoader.IdQuery._ID);
                     String transitionName = getString(R.string.transition_name, itemId);
                     String startTransitionName = getString(R.string.transition_name, mStartId);
                     names.clear();
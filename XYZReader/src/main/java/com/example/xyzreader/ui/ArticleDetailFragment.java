@@ -2,12 +2,15 @@ package com.example.xyzreader.ui;
 
 import android.app.Fragment;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.AppBarLayout;
@@ -31,8 +34,13 @@ import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
 import com.example.xyzreader.R;
 import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ItemsContract;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -53,6 +61,10 @@ public class ArticleDetailFragment extends Fragment implements
 
     public static final String ARG_ITEM_ID = "item_id";
 
+    /** Characters of the body shown before the rest is read, about a screenful. */
+    private static final int FIRST_BODY_CHUNK = 2 * 1024;
+    private static final int BODY_CHUNK = 16 * 1024;
+
     private Cursor mCursor;
     private long mItemId;
     private View mRootView;
@@ -70,6 +82,7 @@ public class ArticleDetailFragment extends Fragment implements
     private Unbinder unbinder;
     private boolean mIsTheTitleVisible = false;
     private boolean mIsTheTitleContainerVisible = true;
+    private BodyStreamTask mBodyStreamTask;
 
     @BindView(R.id.fragment_linearlayout_title)
     LinearLayout mTitleContainer;
@@ -89,7 +102,6 @@ public class ArticleDetailFragment extends Fragment implements
     ImageView mImageView;
 
 
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.sss");
     // Use default locale format
     private SimpleDateFormat outputFormat = new SimpleDateFormat();
     // Most time functions can only handle 1902 - 2037
@@ -201,16 +213,6 @@ public class ArticleDetailFragment extends Fragment implements
         }
     }
 
-    private Date parsePublishedDate() {
-        try {
-            String date = mCursor.getString(ArticleLoader.Query.PUBLISHED_DATE);
-            return dateFormat.parse(date);
-        } catch (ParseException ex) {
-            Log.e(TAG, ex.getMessage());
-            return new Date();
-        }
-    }
-
     private void bindViews() {
         if (mRootView == null) {
             return;
@@ -223,11 +225,11 @@ public class ArticleDetailFragment extends Fragment implements
 
             mTitle.setText(mCursor.getString(ArticleLoader.Query.TITLE));
             mContainerTitle.setText(mCursor.getString(ArticleLoader.Query.TITLE));
-            Date publishedDate = parsePublishedDate();
-            if (!publishedDate.before(START_OF_EPOCH.getTime())) {
+            long publishedTime = mCursor.getLong(ArticleLoader.Query.PUBLISHED_TIME);
+            if (publishedTime >= START_OF_EPOCH.getTimeInMillis()) {
                 mByLine.setText(Html.fromHtml(
                         DateUtils.getRelativeTimeSpanString(
-                                publishedDate.getTime(),
+                                publishedTime,
                                 System.currentTimeMillis(), DateUtils.HOUR_IN_MILLIS,
                                 DateUtils.FORMAT_ABBREV_ALL).toString()
                                 + " by <font color='#ffffff'>"
@@ -237,12 +239,12 @@ public class ArticleDetailFragment extends Fragment implements
             } else {
                 // If date is before 1902, just show the string
                 mByLine.setText(Html.fromHtml(
-                        outputFormat.format(publishedDate) + " by <font color='#ffffff'>"
+                        outputFormat.format(new Date(publishedTime)) + " by <font color='#ffffff'>"
                                 + mCursor.getString(ArticleLoader.Query.AUTHOR)
                                 + "</font>"));
 
             }
-            mBodyText.setText(Html.fromHtml(mCursor.getString(ArticleLoader.Query.BODY).replaceAll("(\r\n|\n)", "<br />")));
+            streamBody();
             ImageLoaderHelper.getInstance(getActivity()).getImageLoader()
                     .get(mCursor.getString(ArticleLoader.Query.PHOTO_URL), new ImageLoader.ImageListener() {
                         @Override
@@ -267,6 +269,79 @@ public class ArticleDetailFragment extends Fragment implements
         }
     }
 
+    /**
+     * (Re)start reading the body. The first screenful is shown as soon as it has been read, the
+     * rest is appended in chunks while the reader scrolls.
+     */
+    private void streamBody() {
+        if (mBodyStreamTask != null) {
+            mBodyStreamTask.cancel(true);
+        }
+        mBodyText.setText(null);
+        mBodyStreamTask = new BodyStreamTask(getActivity().getContentResolver());
+        mBodyStreamTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                ItemsContract.Items.buildBodyUri(mItemId));
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mBodyStreamTask != null) {
+            mBodyStreamTask.cancel(true);
+            mBodyStreamTask = null;
+        }
+    }
+
+    private class BodyStreamTask extends AsyncTask<Uri, CharSequence, Void> {
+        private final ContentResolver mResolver;
+
+        BodyStreamTask(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        @Override
+        protected Void doInBackground(Uri... uris) {
+            InputStream in = null;
+            try {
+                in = mResolver.openInputStream(uris[0]);
+                if (in == null) {
+                    return null;
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                // Chunks only end outside elements, so each one parses on its own
+                BodyChunker chunker = new BodyChunker(FIRST_BODY_CHUNK, BODY_CHUNK);
+                String line;
+                while (!isCancelled() && (line = reader.readLine()) != null) {
+                    String chunk = chunker.append(line);
+                    if (chunk != null) {
+                        publishProgress(Html.fromHtml(chunk));
+                    }
+                }
+                String rest = chunker.finish();
+                if (!isCancelled() && rest != null) {
+                    publishProgress(Html.fromHtml(rest));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading article body", e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(CharSequence... chunks) {
+            if (!isCancelled() && mBodyText != null) {
+                mBodyText.append(chunks[0]);
+            }
+        }
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         return ArticleLoader.newInstanceForItemId(getActivity(), mItemId);
@@ -1,26 +1,30 @@
 package com.example.xyzreader.ui;
 
 import android.app.ActivityOptions;
-import android.app.LoaderManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.Loader;
 import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.SharedElementCallback;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.support.v7.widget.Toolbar;
 import android.text.Html;
 import android.text.format.DateUtils;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -28,11 +32,15 @@ import android.widget.TextView;
 
 import com.example.xyzreader.R;
 import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ArticleSearcher;
 import com.example.xyzreader.data.ItemsContract;
+import com.example.xyzreader.data.PagedArticleList;
+import com.example.xyzreader.data.PeriodicSync;
+import com.example.xyzreader.data.RefreshCoordinator;
 import com.example.xyzreader.data.UpdaterService;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -45,14 +53,14 @@ import java.util.Map;
  * activity presents a grid of items as cards.
  */
 public class ArticleListActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        PagedArticleList.Callback, ArticleSearcher.Callback {
 
     private static final String TAG = ArticleListActivity.class.toString();
     private Toolbar mToolbar;
     private SwipeRefreshLayout mSwipeRefreshLayout;
     private RecyclerView mRecyclerView;
+    private Adapter mAdapter;
 
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.sss");
     // Use default locale format
     private SimpleDateFormat outputFormat = new SimpleDateFormat();
     // Most time functions can only handle 1902 - 2037
@@ -62,27 +70,105 @@ public class ArticleListActivity extends AppCompatActivity implements
     private boolean isReturn = false;
     private int endPosition = -1;
 
+    /** Shape of a card whose row is still loading, the default of the aspect ratio column. */
+    private static final float PLACEHOLDER_ASPECT_RATIO = 1.5f;
+
+    /** All articles, loaded a page at a time. */
+    private PagedArticleList mArticles;
+    private ArticleSearcher mSearcher;
+
+    /** Number of recent keystroke-to-render latencies kept for the running summary. */
+    private static final int SEARCH_LATENCY_SAMPLES = 128;
+
+    // Keystroke-to-render latency of search results, a ring of the most recent ones
+    private final long[] mSearchLatencies = new long[SEARCH_LATENCY_SAMPLES];
+    private int mSearchRenderCount;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_article_list);
 
         mToolbar = (Toolbar) findViewById(R.id.my_toolbar);
+        setSupportActionBar(mToolbar);
+        // The toolbar shows the logo instead
+        getSupportActionBar().setDisplayShowTitleEnabled(false);
 
         mSwipeRefreshLayout = (SwipeRefreshLayout) findViewById(R.id.swipe_refresh_layout);
+        mSwipeRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
+            @Override
+            public void onRefresh() {
+                if (!RefreshCoordinator.getInstance(ArticleListActivity.this).requestRefresh(true)) {
+                    mSwipeRefreshLayout.setRefreshing(false);
+                }
+            }
+        });
 
         mRecyclerView = (RecyclerView) findViewById(R.id.recycler_view);
+        mArticles = new PagedArticleList(this, this);
+        mAdapter = new Adapter(this);
+        mAdapter.setHasStableIds(true);
+        mRecyclerView.setAdapter(mAdapter);
+        int columnCount = getResources().getInteger(R.integer.list_column_count);
+        StaggeredGridLayoutManager sglm =
+                new StaggeredGridLayoutManager(columnCount, StaggeredGridLayoutManager.VERTICAL);
+        mRecyclerView.setLayoutManager(sglm);
 
         ActivityCompat.setExitSharedElementCallback(this, new MyExitSharedElementCallback());
-        getLoaderManager().initLoader(0, null, this);
+        mSearcher = new ArticleSearcher(this, this);
 
         if (savedInstanceState == null) {
             refresh();
+            PeriodicSync.schedule(this);
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSearcher.close();
+        mArticles.close();
+        mAdapter.setSearchResults(null);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.article_list, menu);
+        final MenuItem searchItem = menu.findItem(R.id.search);
+        final SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mSearcher.setQuery(query);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearcher.setQuery(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        mSearcher.setQuery(null);
+                        return true;
+                    }
+                });
+        return true;
+    }
+
     private void refresh() {
-        startService(new Intent(this, UpdaterService.class));
+        RefreshCoordinator.getInstance(this).requestRefresh(false);
     }
 
     @Override
@@ -116,26 +202,81 @@ public class ArticleListActivity extends AppCompatActivity implements
         mSwipeRefreshLayout.setRefreshing(mIsRefreshing);
     }
 
+    // Changes to the article list, applied as they come so the grid keeps its holders and scroll
+    // position. While searching the adapter shows other rows, and is reset when the search ends.
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newAllArticlesInstance(this);
+    public void onInserted(int position, int count) {
+        if (!mAdapter.isSearching()) {
+            mAdapter.notifyItemRangeInserted(position, count);
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
-        Adapter adapter = new Adapter(cursor, this);
-        adapter.setHasStableIds(true);
-        mRecyclerView.setAdapter(adapter);
-        int columnCount = getResources().getInteger(R.integer.list_column_count);
-        StaggeredGridLayoutManager sglm =
-                new StaggeredGridLayoutManager(columnCount, StaggeredGridLayoutManager.VERTICAL);
-        mRecyclerView.setLayoutManager(sglm);
+    public void onRemoved(int position, int count) {
+        if (!mAdapter.isSearching()) {
+            mAdapter.notifyItemRangeRemoved(position, count);
+        }
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        if (!mAdapter.isSearching()) {
+            mAdapter.notifyItemMoved(fromPosition, toPosition);
+        }
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        if (!mAdapter.isSearching()) {
+            mAdapter.notifyItemRangeChanged(position, count, payload);
+        }
+    }
 
+    @Override
+    public void onRowsLoaded(int start, int count) {
+        if (!mAdapter.isSearching()) {
+            mAdapter.notifyItemRangeChanged(start, count);
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mRecyclerView.setAdapter(null);
+    public void onSearchResults(String query, Cursor results, final long keystrokeTime) {
+        mAdapter.setSearchResults(results);
+
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        logSearchLatency(SystemClock.uptimeMillis() - keystrokeTime);
+                        return true;
+                    }
+                });
+    }
+
+    private void logSearchLatency(long latency) {
+        mSearchLatencies[mSearchRenderCount % SEARCH_LATENCY_SAMPLES] = latency;
+        mSearchRenderCount++;
+        final long[] sorted = getSearchLatencies();
+        Arrays.sort(sorted);
+        Log.d(TAG, "Search rendered " + latency + "ms after keystroke (median "
+                + sorted[sorted.length / 2] + "ms, max " + sorted[sorted.length - 1]
+                + "ms over the last " + sorted.length + ")");
+    }
+
+    /**
+     * Keystroke-to-render latencies of the most recently rendered search results, oldest first.
+     */
+    @VisibleForTesting
+    long[] getSearchLatencies() {
+        final int count = Math.min(mSearchRenderCount, SEARCH_LATENCY_SAMPLES);
+        final long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            latencies[i] = mSearchLatencies[(mSearchRenderCount - count + i)
+                    % SEARCH_LATENCY_SAMPLES];
+        }
+        return latencies;
     }
 
     @Override
@@ -159,19 +300,49 @@ public class ArticleListActivity extends AppCompatActivity implements
         }
     }
 
+    /**
+     * Shows {@link #mArticles}, or the search results while searching. Rows of the article list
+     * that are not loaded yet are bound as empty cards and rebound once their page is in.
+     */
     private class Adapter extends RecyclerView.Adapter<ViewHolder> {
-        private Cursor mCursor;
         private ArticleListActivity mArticleListActivity;
+        /** Results of the current search, or null when not searching. */
+        private Cursor mSearchResults;
 
-        public Adapter(Cursor cursor, ArticleListActivity articleListActivity) {
-            mCursor = cursor;
+        public Adapter(ArticleListActivity articleListActivity) {
             mArticleListActivity = articleListActivity;
         }
 
+        public boolean isSearching() {
+            return mSearchResults != null;
+        }
+
+        public void setSearchResults(Cursor results) {
+            final Cursor old = mSearchResults;
+            mSearchResults = results;
+            if (old != null) {
+                old.close();
+            }
+            notifyDataSetChanged();
+        }
+
+        /**
+         * @return a cursor moved to the row at {@code position}, or null if it is not loaded
+         */
+        private Cursor moveToPosition(int position) {
+            if (mSearchResults != null) {
+                return mSearchResults.moveToPosition(position) ? mSearchResults : null;
+            }
+            return mArticles.moveToPosition(position);
+        }
+
         @Override
         public long getItemId(int position) {
-            mCursor.moveToPosition(position);
-            return mCursor.getLong(ArticleLoader.Query._ID);
+            if (mSearchResults != null) {
+                mSearchResults.moveToPosition(position);
+                return mSearchResults.getLong(ArticleLoader.ListQuery._ID);
+            }
+            return mArticles.getItemId(position);
         }
 
         @Override
@@ -181,7 +352,12 @@ public class ArticleListActivity extends AppCompatActivity implements
             view.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    clickedItemPos = vh.getAdapterPosition();
+                    final int position = vh.getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION) {
+                        // Removed by an update whose layout has not run yet
+                        return;
+                    }
+                    clickedItemPos = position;
                     Intent intent = new Intent(Intent.ACTION_VIEW,
                             ItemsContract.Items.buildItemUri(getItemId(clickedItemPos)));
 
@@ -203,44 +379,41 @@ public class ArticleListActivity extends AppCompatActivity implements
             return vh;
         }
 
-        private Date parsePublishedDate() {
-            try {
-                String date = mCursor.getString(ArticleLoader.Query.PUBLISHED_DATE);
-                return dateFormat.parse(date);
-            } catch (ParseException ex) {
-                Log.e(TAG, ex.getMessage());
-                Log.i(TAG, "passing today's date");
-                return new Date();
-            }
-        }
-
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            mCursor.moveToPosition(position);
-            holder.titleView.setText(mCursor.getString(ArticleLoader.Query.TITLE));
-            Date publishedDate = parsePublishedDate();
-            if (!publishedDate.before(START_OF_EPOCH.getTime())) {
+            Cursor cursor = moveToPosition(position);
+            if (cursor == null) {
+                bindPlaceholder(holder);
+                return;
+            }
+            holder.titleView.setText(cursor.getString(ArticleLoader.ListQuery.TITLE));
+            long publishedTime = cursor.getLong(ArticleLoader.ListQuery.PUBLISHED_TIME);
+            String snippet = cursor == mSearchResults
+                    ? "<br/>" + cursor.getString(ArticleSearcher.SearchQuery.SNIPPET) : "";
+            if (publishedTime >= START_OF_EPOCH.getTimeInMillis()) {
 
                 holder.subtitleView.setText(Html.fromHtml(
                         DateUtils.getRelativeTimeSpanString(
-                                publishedDate.getTime(),
+                                publishedTime,
                                 System.currentTimeMillis(), DateUtils.HOUR_IN_MILLIS,
                                 DateUtils.FORMAT_ABBREV_ALL).toString()
                                 + "<br/>" + " by "
-                                + mCursor.getString(ArticleLoader.Query.AUTHOR)));
+                                + cursor.getString(ArticleLoader.ListQuery.AUTHOR)
+                                + snippet));
             } else {
                 holder.subtitleView.setText(Html.fromHtml(
-                        outputFormat.format(publishedDate)
+                        outputFormat.format(new Date(publishedTime))
                         + "<br/>" + " by "
-                        + mCursor.getString(ArticleLoader.Query.AUTHOR)));
+                        + cursor.getString(ArticleLoader.ListQuery.AUTHOR)
+                        + snippet));
             }
             holder.thumbnailView.setImageUrl(
-                    mCursor.getString(ArticleLoader.Query.THUMB_URL),
+                    cursor.getString(ArticleLoader.ListQuery.THUMB_URL),
                     ImageLoaderHelper.getInstance(ArticleListActivity.this).getImageLoader());
-            holder.thumbnailView.setAspectRatio(mCursor.getFloat(ArticleLoader.Query.ASPECT_RATIO));
+            holder.thumbnailView.setAspectRatio(cursor.getFloat(ArticleLoader.ListQuery.ASPECT_RATIO));
 
             String thumbnailTransitionName = getString(
-                    R.string.transition_name, mRecyclerView.getAdapter().getItemId(position));
+                    R.string.transition_name, cursor.getLong(ArticleLoader.ListQuery._ID));
             holder.thumbnailView.setTag(thumbnailTransitionName);
 ///           Log.d(TAG, thumbnailTransitionName);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -248,9 +421,18 @@ public class ArticleListActivity extends AppCompatActivity implements
             }
         }
 
+        private void bindPlaceholder(ViewHolder holder) {
+            holder.titleView.setText(null);
+            holder.subtitleView.setText(null);
+            holder.thumbnailView.setImageUrl(null,
+                    ImageLoaderHelper.getInstance(ArticleListActivity.this).getImageLoader());
+            holder.thumbnailView.setAspectRatio(PLACEHOLDER_ASPECT_RATIO);
+            holder.thumbnailView.setTag(null);
+        }
+
         @Override
         public int getItemCount() {
-            return mCursor.getCount();
+            return mSearchResults != null ? mSearchResults.getCount() : mArticles.getCount();
         }
     }
 
@@ -0,0 +1,108 @@
+package com.example.xyzreader.ui;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Cuts an article body, fed a line at a time, into chunks of HTML that can each be handed to
+ * {@link android.text.Html#fromHtml} on its own. Line breaks become {@code <br />}, as they do
+ * for a body shown whole, except inside a tag. A chunk only ends at the end of a line outside
+ * every element, so an element that spans lines, e.g. a quote or a link, always lands in a single
+ * chunk, however long that makes it; an element that is never closed keeps the rest of the body
+ * in one chunk.
+ */
+class BodyChunker {
+    /** Elements that never have content or an end tag. */
+    private static final Set<String> VOID_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param",
+            "source", "track", "wbr"));
+
+    private final int mChunkSize;
+    private final StringBuilder mChunk = new StringBuilder();
+    /** Text of a tag still waiting for its closing bracket, or null outside tags. */
+    private StringBuilder mTag;
+    /** Elements opened and not yet closed. */
+    private int mDepth;
+    private int mTargetSize;
+
+    /**
+     * @param firstChunkSize chars after which the first chunk ends, once it can
+     * @param chunkSize      chars after which every later chunk ends, once it can
+     */
+    BodyChunker(int firstChunkSize, int chunkSize) {
+        mTargetSize = firstChunkSize;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Add the next line of the body.
+     *
+     * @return a complete chunk, or null if the current one has to grow further
+     */
+    String append(String line) {
+        scan(line);
+        // A break inside a tag only separates its attributes
+        mChunk.append(line).append(mTag != null ? " " : "<br />");
+        if (mChunk.length() < mTargetSize || mDepth > 0 || mTag != null) {
+            return null;
+        }
+        mTargetSize = mChunkSize;
+        return take();
+    }
+
+    /**
+     * @return the rest of the body, or null if there is none
+     */
+    String finish() {
+        return mChunk.length() > 0 ? take() : null;
+    }
+
+    private String take() {
+        final String chunk = mChunk.toString();
+        mChunk.setLength(0);
+        return chunk;
+    }
+
+    /** Track the elements that {@code line} opens and closes. */
+    private void scan(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (mTag == null) {
+                if (c == '<') {
+                    mTag = new StringBuilder();
+                }
+            } else if (c == '>') {
+                onTag(mTag.toString().trim());
+                mTag = null;
+            } else {
+                mTag.append(c);
+            }
+        }
+        if (mTag != null) {
+            // The tag goes on on the next line
+            mTag.append(' ');
+        }
+    }
+
+    private void onTag(String tag) {
+        if (tag.isEmpty() || tag.startsWith("!") || tag.startsWith("?") || tag.endsWith("/")) {
+            // Comment, declaration or self-closing tag
+            return;
+        }
+        if (tag.startsWith("/")) {
+            if (mDepth > 0) {
+                mDepth--;
+            }
+            return;
+        }
+        int end = 0;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end))) {
+            end++;
+        }
+        if (!VOID_ELEMENTS.contains(tag.substring(0, end).toLowerCase(Locale.US))) {
+            mDepth++;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.xyzreader.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncPolicyTest {
+    private static final long INTERVAL = 3 * 60 * 60 * 1000;
+    private static final long INITIAL_BACKOFF = 60 * 1000;
+    private static final long MAX_BACKOFF = INTERVAL;
+    private static final long START = 1000000;
+
+    private static final SyncPolicy.Constraints UNMETERED =
+            new SyncPolicy.Constraints(true, false, false);
+
+    private FakeClock mClock;
+    private FakeDeviceState mDevice;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock(START);
+        mDevice = new FakeDeviceState();
+    }
+
+    @Test
+    public void firstSyncIsDueAtOnce() {
+        final SyncPolicy policy = newPolicy(0, 0, false);
+        assertTrue(policy.isDue());
+        assertTrue(policy.shouldRunNow());
+    }
+
+    @Test
+    public void successWaitsForInterval() {
+        final SyncPolicy policy = newPolicy(2, 0, false);
+        policy.onSyncSucceeded();
+
+        assertEquals(0, policy.getFailureCount());
+        assertEquals(START + INTERVAL, policy.getNextRunTime());
+        mClock.advance(INTERVAL - 1);
+        assertFalse(policy.isDue());
+        mClock.advance(1);
+        assertTrue(policy.isDue());
+    }
+
+    @Test
+    public void failuresBackOffExponentiallyUpToMaximum() {
+        final SyncPolicy policy = newPolicy(0, 0, false);
+        long expected = INITIAL_BACKOFF;
+        for (int failures = 1; failures <= 12; failures++) {
+            policy.onSyncFailed();
+            assertEquals(failures, policy.getFailureCount());
+            assertEquals(mClock.now + Math.min(expected, MAX_BACKOFF), policy.getNextRunTime());
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void successResetsBackoff() {
+        final SyncPolicy policy = newPolicy(0, 0, false);
+        policy.onSyncFailed();
+        policy.onSyncFailed();
+        policy.onSyncSucceeded();
+        policy.onSyncFailed();
+
+        assertEquals(1, policy.getFailureCount());
+        assertEquals(START + INITIAL_BACKOFF, policy.getNextRunTime());
+    }
+
+    @Test
+    public void constraintsFollowDeviceState() {
+        final SyncPolicy policy = newPolicy(0, 0, false);
+        mDevice.metered = true;
+        assertFalse(policy.constraintsMet());
+        mDevice.metered = false;
+        mDevice.connected = false;
+        assertFalse(policy.constraintsMet());
+        mDevice.connected = true;
+        assertTrue(policy.constraintsMet());
+
+        mDevice.metered = true;
+        final SyncPolicy anyNetwork = new SyncPolicy(mClock, mDevice,
+                new SyncPolicy.Constraints(false, false, false), INTERVAL, INITIAL_BACKOFF,
+                MAX_BACKOFF, 0, 0, false);
+        assertTrue(anyNetwork.constraintsMet());
+    }
+
+    @Test
+    public void unmetConstraintsDeferForIntervalWithoutCountingAsFailure() {
+        mDevice.metered = true;
+        final SyncPolicy policy = newPolicy(3, START, false);
+        assertTrue(policy.isDue());
+        assertFalse(policy.shouldRunNow());
+        policy.onConstraintsUnmet();
+
+        assertTrue(policy.isDeferred());
+        assertEquals(3, policy.getFailureCount());
+        assertEquals(START + INTERVAL, policy.getNextRunTime());
+        // Staying on the metered network does not wake the sync every minute
+        mClock.advance(INITIAL_BACKOFF);
+        assertFalse(policy.isDue());
+    }
+
+    @Test
+    public void unmetConstraintsLeaveSyncThatIsNotDueAlone() {
+        final SyncPolicy policy = newPolicy(0, START + INITIAL_BACKOFF, false);
+        policy.onConstraintsUnmet();
+
+        assertFalse(policy.isDeferred());
+        assertEquals(START + INITIAL_BACKOFF, policy.getNextRunTime());
+    }
+
+    @Test
+    public void deferredSyncRunsOnceConstraintsHold() {
+        mDevice.metered = true;
+        final SyncPolicy policy = newPolicy(0, START, false);
+        policy.onConstraintsUnmet();
+
+        mClock.advance(INITIAL_BACKOFF);
+        policy.onDeviceStateChanged();
+        assertTrue(policy.isDeferred());
+        assertFalse(policy.isDue());
+
+        mDevice.metered = false;
+        policy.onDeviceStateChanged();
+        assertFalse(policy.isDeferred());
+        assertEquals(mClock.now, policy.getNextRunTime());
+        assertTrue(policy.shouldRunNow());
+    }
+
+    @Test
+    public void deviceStateChangeWithoutDeferredSyncChangesNothing() {
+        final SyncPolicy policy = newPolicy(0, START + INTERVAL, false);
+        policy.onDeviceStateChanged();
+
+        assertEquals(START + INTERVAL, policy.getNextRunTime());
+        assertFalse(policy.isDue());
+    }
+
+    @Test
+    public void syncOutcomeEndsDeferral() {
+        final SyncPolicy succeeded = newPolicy(0, START, true);
+        succeeded.onSyncSucceeded();
+        assertFalse(succeeded.isDeferred());
+
+        final SyncPolicy failed = newPolicy(0, START, true);
+        failed.onSyncFailed();
+        assertFalse(failed.isDeferred());
+    }
+
+    private SyncPolicy newPolicy(int failureCount, long nextRunTime, boolean deferred) {
+        return new SyncPolicy(mClock, mDevice, UNMETERED, INTERVAL, INITIAL_BACKOFF, MAX_BACKOFF,
+                failureCount, nextRunTime, deferred);
+    }
+
+    private static class FakeClock implements SyncPolicy.Clock {
+        long now;
+
+        FakeClock(long now) {
+            this.now = now;
+        }
+
+        void advance(long millis) {
+            now += millis;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static class FakeDeviceState implements SyncPolicy.DeviceState {
+        boolean connected = true;
+        boolean metered;
+        boolean charging;
+        boolean idle;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            return !metered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+
+        @Override
+        public boolean isIdle() {
+            return idle;
+        }
+    }
+}
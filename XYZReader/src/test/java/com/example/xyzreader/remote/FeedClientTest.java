@@ -0,0 +1,202 @@
+package com.example.xyzreader.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link FeedClient} against a local server: every payload the client has already synced
+ * must be recognised before its body is handed to the parser.
+ */
+public class FeedClientTest {
+    private static final String FEED = "[{\"id\":\"1\"}]";
+    private static final String CHANGED_FEED = "[{\"id\":\"1\"},{\"id\":\"2\"}]";
+    private static final String KEY = "feed";
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private File mCacheDir;
+    private FeedClient mClient;
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mCacheDir = mTemp.newFolder("cache");
+        mClient = new FeedClient(mCacheDir, new InMemorySharedPreferences());
+        mUrl = mServer.url("/feed.json").url();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void notModifiedResponseSkipsBody() throws Exception {
+        mServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(FEED));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        assertEquals(FEED, sync(mUrl));
+
+        FeedClient.Feed feed = mClient.open(mUrl, KEY);
+        try {
+            assertTrue(feed.isNotModified());
+        } finally {
+            feed.close();
+        }
+        mServer.takeRequest();
+        assertEquals("\"v1\"", mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void sameEtagSkipsBody() throws Exception {
+        // Not cacheable, so the client only has its own record of the ETag to go by
+        mServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "no-store").setBody(FEED));
+        mServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "no-store").setBody(FEED));
+
+        assertEquals(FEED, sync(mUrl));
+        assertNull(sync(mUrl));
+    }
+
+    @Test
+    public void identicalBodyWithoutValidatorSkipsParsing() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(FEED));
+        mServer.enqueue(new MockResponse().setBody(FEED));
+        mServer.enqueue(new MockResponse().setBody(CHANGED_FEED));
+
+        assertEquals(FEED, sync(mUrl));
+        assertNull(sync(mUrl));
+        assertEquals(CHANGED_FEED, sync(mUrl));
+        assertSpoolEmpty();
+    }
+
+    @Test
+    public void successfulRequestRevalidatesThenSkipsIdenticalBody() throws Exception {
+        // 200, then 304, then the same body again from a server that lost its validators
+        mServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(FEED));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+        mServer.enqueue(new MockResponse().setBody(FEED));
+
+        assertEquals(FEED, sync(mUrl));
+        assertNull(sync(mUrl));
+        assertNull(sync(mUrl));
+        assertSpoolEmpty();
+    }
+
+    @Test
+    public void uncommittedFeedIsNotRemembered() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(FEED));
+        mServer.enqueue(new MockResponse().setBody(FEED));
+
+        FeedClient.Feed feed = mClient.open(mUrl, KEY);
+        try {
+            assertEquals(FEED, read(feed.getBody()));
+        } finally {
+            feed.close();
+        }
+        assertEquals(FEED, sync(mUrl));
+    }
+
+    @Test
+    public void detectionOffAlwaysHandsOutBody() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(FEED));
+        mServer.enqueue(new MockResponse().setBody(FEED));
+
+        for (int i = 0; i < 2; i++) {
+            FeedClient.Feed feed = mClient.open(mUrl, null);
+            try {
+                assertFalse(feed.isNotModified());
+                assertEquals(FEED, read(feed.getBody()));
+                feed.commit();
+            } finally {
+                feed.close();
+            }
+        }
+    }
+
+    @Test
+    public void slotOnlyMatchesTheUrlItWasCommittedFor() throws Exception {
+        final URL other = mServer.url("/feed.json?page=2").url();
+        mServer.enqueue(new MockResponse().setBody(FEED));
+        mServer.enqueue(new MockResponse().setBody(FEED));
+        mServer.enqueue(new MockResponse().setBody(FEED));
+
+        assertEquals(FEED, sync(mUrl));
+        assertEquals(FEED, sync(other));
+        assertNull(sync(other));
+    }
+
+    @Test
+    public void committedStateComesBackWithUnchangedPayload() throws Exception {
+        mServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(FEED));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        FeedClient.Feed feed = mClient.open(mUrl, KEY);
+        try {
+            read(feed.getBody());
+            feed.commit("cursor");
+        } finally {
+            feed.close();
+        }
+        feed = mClient.open(mUrl, KEY);
+        try {
+            assertTrue(feed.isNotModified());
+            assertEquals("cursor", feed.getCommittedState());
+        } finally {
+            feed.close();
+        }
+    }
+
+    /**
+     * Fetch and commit {@code url} the way a sync does.
+     *
+     * @return the body, or null if the feed was recognised as unchanged
+     */
+    private String sync(URL url) throws IOException {
+        FeedClient.Feed feed = mClient.open(url, KEY);
+        try {
+            String body = feed.isNotModified() ? null : read(feed.getBody());
+            feed.commit();
+            return body;
+        } finally {
+            feed.close();
+        }
+    }
+
+    private void assertSpoolEmpty() {
+        File[] spooled = new File(mCacheDir, "feed-spool").listFiles();
+        assertTrue(spooled == null || spooled.length == 0);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.xyzreader.ui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Chunks of a streamed body must each be well-formed on their own, and add up to the whole body.
+ */
+public class BodyChunkerTest {
+    @Test
+    public void plainLinesEndChunksOnceLongEnough() {
+        final List<String> chunks = chunk(new BodyChunker(10, 20),
+                "first line", "second", "third line", "fourth line");
+
+        assertEquals(3, chunks.size());
+        assertEquals("first line<br />", chunks.get(0));
+        assertEquals("second<br />third line<br />", chunks.get(1));
+        assertEquals("fourth line<br />", chunks.get(2));
+    }
+
+    @Test
+    public void elementSpanningLinesStaysInOneChunk() {
+        final List<String> chunks = chunk(new BodyChunker(1, 1),
+                "<blockquote>quoted", "<i>still</i> quoted", "</blockquote>", "after");
+
+        assertEquals(2, chunks.size());
+        assertEquals("<blockquote>quoted<br /><i>still</i> quoted<br /></blockquote><br />",
+                chunks.get(0));
+        assertEquals("after<br />", chunks.get(1));
+    }
+
+    @Test
+    public void tagSpanningLinesStaysInOneChunk() {
+        final List<String> chunks = chunk(new BodyChunker(1, 1),
+                "<a", "href=\"x\">link</a>", "after");
+
+        assertEquals(2, chunks.size());
+        assertEquals("<a href=\"x\">link</a><br />", chunks.get(0));
+    }
+
+    @Test
+    public void voidAndSelfClosingElementsDoNotHoldChunksBack() {
+        final List<String> chunks = chunk(new BodyChunker(1, 1),
+                "<img src=\"a.png\">", "<hr/>", "<BR>", "<!-- note -->");
+
+        assertEquals(4, chunks.size());
+    }
+
+    @Test
+    public void unclosedElementKeepsRestInOneChunk() {
+        final BodyChunker chunker = new BodyChunker(1, 1);
+
+        assertNull(chunker.append("<p>never closed"));
+        assertNull(chunker.append("more"));
+        assertEquals("<p>never closed<br />more<br />", chunker.finish());
+        assertNull(chunker.finish());
+    }
+
+    private static List<String> chunk(BodyChunker chunker, String... lines) {
+        final List<String> chunks = new ArrayList<String>();
+        for (String line : lines) {
+            final String chunk = chunker.append(line);
+            if (chunk != null) {
+                chunks.add(chunk);
+            }
+        }
+        final String rest = chunker.finish();
+        if (rest != null) {
+            chunks.add(rest);
+        }
+        return chunks;
+    }
+}